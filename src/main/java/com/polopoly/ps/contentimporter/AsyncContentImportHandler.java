@@ -0,0 +1,27 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ContentImportHandler} that can run imports in the background. Each
+ * call starts an import run and returns a future that completes with the
+ * report of the run, or exceptionally with the
+ * {@link ContentImportHandlerException} the blocking methods would have
+ * thrown. Cancelling the future stops the run before the next resource is
+ * imported; resources already passed to the DocumentImporter stay imported.
+ */
+public interface AsyncContentImportHandler extends ContentImportHandler {
+    /**
+     * @param listener notified as resources are imported, or null.
+     */
+    public CompletableFuture<ImportReport> importContentAsync(Set<URL> resources, ImportProgressListener listener);
+
+    /**
+     * @param listener notified as resources are imported, or null.
+     */
+    public CompletableFuture<ImportReport> importContentByImportOrderAsync(LinkedHashSet<URL> resources,
+                                                                           ImportProgressListener listener);
+}
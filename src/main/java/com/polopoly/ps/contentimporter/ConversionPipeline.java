@@ -0,0 +1,200 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads and converts resources to content XML, handing out the results in the
+ * iteration order of the resources. With a parallelism above one the
+ * conversion is done by a bounded pool of worker threads that work at most
+ * <code>queueDepth</code> resources ahead of the caller, which acts as the
+ * single sequencer passing the results on to the importer.
+ */
+public class ConversionPipeline {
+
+    /**
+     * Converts a single resource. Implementations must be thread safe when
+     * used with a parallelism above one.
+     */
+    public interface Converter {
+        /**
+         * @return the converted resource or null if the resource should be
+         *         skipped.
+         */
+        ConvertedResource convert(URL resource) throws ContentImportHandlerException;
+    }
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final Iterator<URL> resources;
+    private final Converter converter;
+    private final int queueDepth;
+
+    private final ExecutorService executor;
+    private final Deque<Future<ConvertedResource>> inFlight = new ArrayDeque<Future<ConvertedResource>>();
+
+    /**
+     * The resources converted by the workers and not yet handed out, to be
+     * released if the pipeline is closed before they are.
+     */
+    private final Set<ConvertedResource> unclaimed = new HashSet<ConvertedResource>();
+    private boolean closed;
+
+    public ConversionPipeline(Iterable<URL> resources, Converter converter, int parallelism, int queueDepth) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one, was " + parallelism);
+        }
+
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("Queue depth must be at least one, was " + queueDepth);
+        }
+
+        this.resources = resources.iterator();
+        this.converter = converter;
+        this.queueDepth = queueDepth;
+
+        if (parallelism > 1) {
+            executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory());
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the next converted resource in iteration order, waiting for it
+     * to be converted if necessary.
+     *
+     * @return the next converted resource or null if there are no more.
+     */
+    public ConvertedResource next() throws ContentImportHandlerException {
+        if (executor == null) {
+            while (resources.hasNext()) {
+                ConvertedResource converted = converter.convert(resources.next());
+
+                if (converted != null) {
+                    return converted;
+                }
+            }
+
+            return null;
+        }
+
+        while (true) {
+            fill();
+
+            Future<ConvertedResource> head = inFlight.poll();
+
+            if (head == null) {
+                return null;
+            }
+
+            // keep the workers busy while we wait for the head of the queue.
+            fill();
+
+            ConvertedResource converted = await(head);
+
+            if (converted != null) {
+                synchronized (unclaimed) {
+                    unclaimed.remove(converted);
+                }
+
+                return converted;
+            }
+        }
+    }
+
+    /**
+     * Cancels any conversions still in progress, releases the resources
+     * converted but not handed out and stops the workers.
+     */
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+
+        for (Future<ConvertedResource> future : inFlight) {
+            future.cancel(true);
+        }
+
+        inFlight.clear();
+        executor.shutdownNow();
+
+        synchronized (unclaimed) {
+            closed = true;
+
+            for (ConvertedResource converted : unclaimed) {
+                converted.release();
+            }
+
+            unclaimed.clear();
+        }
+    }
+
+    private void fill() {
+        while (inFlight.size() < queueDepth && resources.hasNext()) {
+            final URL resource = resources.next();
+
+            inFlight.add(executor.submit(new Callable<ConvertedResource>() {
+                public ConvertedResource call() throws ContentImportHandlerException {
+                    ConvertedResource converted = converter.convert(resource);
+
+                    if (converted == null) {
+                        return null;
+                    }
+
+                    synchronized (unclaimed) {
+                        if (closed) {
+                            converted.release();
+                            return null;
+                        }
+
+                        unclaimed.add(converted);
+                    }
+
+                    return converted;
+                }
+            }));
+        }
+    }
+
+    private ConvertedResource await(Future<ConvertedResource> future) throws ContentImportHandlerException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ContentImportHandlerException("Interrupted while waiting for resource conversion", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof ContentImportHandlerException) {
+                throw (ContentImportHandlerException) cause;
+            }
+
+            throw new ContentImportHandlerException(StandardContentImportHandler.SEVERE_CONTENT_IMPORT_FAILED, cause);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                "content-import-" + poolNumber + "-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
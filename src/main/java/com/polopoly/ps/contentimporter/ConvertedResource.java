@@ -0,0 +1,203 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+
+import com.polopoly.ps.contentimporter.hotdeploy.util.Utf8InputStream;
+
+/**
+ * A resource that has been read and converted to content XML, ready to be
+ * passed to the DocumentImporter. The XML is either a complete document or,
+ * for resources that may be coalesced with others, the <code>content</code>
+ * elements of a batch without the surrounding <code>batch</code> element.
+ *
+ * The XML is held either as a string or, when converted for a streaming
+ * {@link ImportSink}, as UTF-8 bytes. A large resource may also be split into
+ * several documents, each imported on its own.
+ */
+public class ConvertedResource {
+    private static final String ENCODING = "UTF-8";
+
+    private final URL url;
+    private final String fileName;
+    private final String xml;
+    private final byte[] encodedXml;
+    private final int xmlLength;
+    private final boolean split;
+    private final boolean fragment;
+    private final ResourceFingerprint fingerprint;
+    private final ResourceMetrics metrics;
+
+    public ConvertedResource(URL url, String fileName, String xml) {
+        this(url, fileName, xml, false);
+    }
+
+    public ConvertedResource(URL url, String fileName, String xml, boolean fragment) {
+        this(url, fileName, xml, fragment, null);
+    }
+
+    public ConvertedResource(URL url, String fileName, String xml, boolean fragment,
+                             ResourceFingerprint fingerprint) {
+        this(url, fileName, xml, fragment, fingerprint, null);
+    }
+
+    public ConvertedResource(URL url, String fileName, String xml, boolean fragment,
+                             ResourceFingerprint fingerprint, ResourceMetrics metrics) {
+        this.url = url;
+        this.fileName = fileName;
+        this.xml = xml;
+        this.encodedXml = null;
+        this.xmlLength = xml.length();
+        this.split = false;
+        this.fragment = fragment;
+        this.fingerprint = fingerprint;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param encodedXml an array holding the XML encoded as UTF-8 in its
+     *        first <code>encodedLength</code> bytes. The array is not copied.
+     */
+    public ConvertedResource(URL url, String fileName, byte[] encodedXml, int encodedLength, boolean fragment,
+                             ResourceFingerprint fingerprint, ResourceMetrics metrics) {
+        this.url = url;
+        this.fileName = fileName;
+        this.xml = null;
+        this.encodedXml = encodedXml;
+        this.xmlLength = encodedLength;
+        this.split = false;
+        this.fragment = fragment;
+        this.fingerprint = fingerprint;
+        this.metrics = metrics;
+    }
+
+    /**
+     * A resource split into several complete documents, which the subclass
+     * writes and imports one at a time rather than holding them here.
+     */
+    protected ConvertedResource(URL url, String fileName, ResourceFingerprint fingerprint, ResourceMetrics metrics) {
+        this.url = url;
+        this.fileName = fileName;
+        this.xml = null;
+        this.encodedXml = null;
+        this.xmlLength = 0;
+        this.split = true;
+        this.fragment = false;
+        this.fingerprint = fingerprint;
+        this.metrics = metrics;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the XML, decoded on every call if held as bytes.
+     * @throws IllegalStateException if the resource was split into several
+     *         documents.
+     */
+    public String getXml() {
+        if (xml != null) {
+            return xml;
+        }
+
+        checkNotSplit();
+
+        try {
+            return new String(encodedXml, 0, xmlLength, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the XML encoded as UTF-8. Only the XML held as a string is
+     *         encoded, a part at a time as the stream is read.
+     */
+    public InputStream openXml() {
+        checkNotSplit();
+
+        if (xml == null) {
+            return new ByteArrayInputStream(encodedXml, 0, xmlLength);
+        }
+
+        return new Utf8InputStream(xml);
+    }
+
+    /**
+     * @return the length of the XML in characters or, if held as bytes, in
+     *         bytes. The documents of a split resource are not held, so its
+     *         length is zero.
+     */
+    public int getXmlLength() {
+        return xmlLength;
+    }
+
+    /**
+     * @return true if the XML is held as UTF-8 bytes rather than as a string.
+     */
+    public boolean isEncoded() {
+        return encodedXml != null;
+    }
+
+    /**
+     * @return true if the resource was split into several documents.
+     */
+    public boolean isSplit() {
+        return split;
+    }
+
+    private void checkNotSplit() {
+        if (split) {
+            throw new IllegalStateException(fileName + " was split into several documents.");
+        }
+    }
+
+    /**
+     * Releases what the documents of a split resource are written from, once
+     * they have been imported or will not be.
+     */
+    void release() {
+    }
+
+    /**
+     * @return true if the XML is the body of a batch rather than a complete
+     *         document.
+     */
+    public boolean isFragment() {
+        return fragment;
+    }
+
+    /**
+     * @return the fingerprint of the resource as read, or null if not
+     *         computed.
+     */
+    public ResourceFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the number of bytes read from the resource or -1 if unknown.
+     */
+    public long getSize() {
+        return metrics != null ? metrics.getBytesRead() : -1;
+    }
+
+    /**
+     * @return the measurements of the resource, or null if not measured.
+     */
+    public ResourceMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return fileName;
+    }
+}
@@ -0,0 +1,42 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.InputStream;
+
+import com.polopoly.cm.xml.DocumentImporter;
+import com.polopoly.ps.contentimporter.hotdeploy.util.ResourceLoader;
+
+/**
+ * Passes documents to a DocumentImporter. Since the importer only accepts
+ * strings, the sink is not streaming and a document given as a stream is
+ * decoded into a string before it is imported.
+ */
+public class DocumentImporterSink implements ImportSink {
+    private static final String ENCODING = "UTF-8";
+
+    private final DocumentImporter documentImporter;
+
+    public DocumentImporterSink(DocumentImporter documentImporter) {
+        this.documentImporter = documentImporter;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public void importXml(String xml) throws Exception {
+        documentImporter.importXML(xml);
+    }
+
+    public void importXml(InputStream xml) throws Exception {
+        documentImporter.importXML(new String(ResourceLoader.readBytes(xml, -1), ENCODING));
+    }
+
+    public DocumentImporter getDocumentImporter() {
+        return documentImporter;
+    }
+
+    @Override
+    public String toString() {
+        return "import sink of " + documentImporter;
+    }
+}
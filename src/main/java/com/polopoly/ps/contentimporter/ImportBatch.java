@@ -0,0 +1,223 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.polopoly.ps.contentimporter.hotdeploy.util.XmlParserPool;
+
+/**
+ * One or more consecutive converted resources that are passed to the
+ * DocumentImporter in a single call. A batch of a single resource imports the
+ * XML of that resource as is, while resources converted to batch fragments
+ * are merged into one <code>batch</code> document.
+ */
+public class ImportBatch {
+    private static final String BATCH_ELEMENT = "batch";
+
+    private static final String XML_HEADER =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<batch xmlns=\"http://www.polopoly.com/polopoly/cm/xmlio\">\n";
+
+    private static final String XML_FOOTER =
+        "</batch>\n";
+
+    private final List<ConvertedResource> resources = new ArrayList<ConvertedResource>();
+    private long size;
+
+    public ImportBatch() {
+    }
+
+    public ImportBatch(List<ConvertedResource> resources) {
+        for (ConvertedResource resource : resources) {
+            add(resource);
+        }
+    }
+
+    public void add(ConvertedResource resource) {
+        resources.add(resource);
+        size += resource.getXmlLength();
+    }
+
+    /**
+     * Whether the resource may be merged into this batch without the batch
+     * exceeding the specified limits. Resources that are complete documents
+     * rather than batch fragments are never merged.
+     *
+     * @param maxResources the maximum number of resources in a batch.
+     * @param maxSize the maximum size of the merged XML in characters (in
+     *        bytes for XML held as bytes), or zero for no limit.
+     */
+    public boolean accepts(ConvertedResource resource, int maxResources, long maxSize) {
+        if (resources.isEmpty()) {
+            return true;
+        }
+
+        if (!resource.isFragment() || !resources.get(0).isFragment()) {
+            return false;
+        }
+
+        if (resources.size() >= maxResources) {
+            return false;
+        }
+
+        return maxSize <= 0 || size + resource.getXmlLength() <= maxSize;
+    }
+
+    public boolean isEmpty() {
+        return resources.isEmpty();
+    }
+
+    public int size() {
+        return resources.size();
+    }
+
+    public List<ConvertedResource> getResources() {
+        return Collections.unmodifiableList(resources);
+    }
+
+    /**
+     * @return the document to pass to the DocumentImporter.
+     */
+    public String getXml() {
+        if (resources.size() == 1 && !resources.get(0).isFragment()) {
+            return resources.get(0).getXml();
+        }
+
+        StringBuilder xml = new StringBuilder((int) size + XML_HEADER.length() + XML_FOOTER.length());
+
+        xml.append(XML_HEADER);
+
+        for (ConvertedResource resource : resources) {
+            xml.append(resource.getXml());
+        }
+
+        xml.append(XML_FOOTER);
+
+        return xml.toString();
+    }
+
+    /**
+     * @return the document to pass to a streaming {@link ImportSink}, encoded
+     *         as UTF-8. The XML of the resources is streamed one resource at a
+     *         time rather than merged.
+     */
+    public InputStream openXml() {
+        if (resources.size() == 1 && !resources.get(0).isFragment()) {
+            return resources.get(0).openXml();
+        }
+
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            // the header, the resources and then the footer.
+            private int next = -1;
+
+            public boolean hasMoreElements() {
+                return next <= resources.size();
+            }
+
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+
+                int current = next++;
+
+                if (current == -1) {
+                    return new ByteArrayInputStream(encode(XML_HEADER));
+                }
+
+                if (current == resources.size()) {
+                    return new ByteArrayInputStream(encode(XML_FOOTER));
+                }
+
+                return resources.get(current).openXml();
+            }
+        });
+    }
+
+    private static byte[] encode(String xml) {
+        try {
+            return xml.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return resources.toString();
+    }
+
+    /**
+     * Lifts the children out of the root element of a batch document so that
+     * they can be merged into another batch.
+     *
+     * @return the serialized children of the root element or null if the
+     *         document is not a batch (e.g. a template definition).
+     * @throws SAXException if the document is not well-formed.
+     * @throws TransformerException if the children could not be serialized.
+     */
+    public static String getBatchBody(String xml)
+        throws ParserConfigurationException, SAXException, IOException, TransformerException {
+        DocumentBuilder builder = null;
+        Transformer transformer = null;
+
+        try {
+            builder = XmlParserPool.acquireDocumentBuilder(true);
+
+            Document document = builder.parse(new InputSource(new StringReader(xml)));
+            Element root = document.getDocumentElement();
+
+            String rootName = root.getLocalName() != null ? root.getLocalName() : root.getNodeName();
+
+            if (!rootName.equals(BATCH_ELEMENT)) {
+                return null;
+            }
+
+            transformer = XmlParserPool.acquireTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+            StringWriter body = new StringWriter(xml.length());
+
+            for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    transformer.transform(new DOMSource(child), new StreamResult(body));
+                    body.write('\n');
+                }
+            }
+
+            return body.toString();
+        } finally {
+            if (transformer != null) {
+                XmlParserPool.release(transformer);
+            }
+
+            if (builder != null) {
+                XmlParserPool.release(builder);
+            }
+        }
+    }
+}
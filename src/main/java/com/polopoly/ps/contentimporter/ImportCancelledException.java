@@ -0,0 +1,21 @@
+package com.polopoly.ps.contentimporter;
+
+/**
+ * Thrown when an asynchronous import run stops because it was cancelled.
+ */
+@SuppressWarnings("serial")
+public class ImportCancelledException extends ContentImportHandlerException {
+    private final ImportReport report;
+
+    public ImportCancelledException(ImportReport report) {
+        super("Content import was cancelled after " + report);
+        this.report = report;
+    }
+
+    /**
+     * @return the report of what was imported before the run was cancelled.
+     */
+    public ImportReport getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,201 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A journal of the progress of an ordered import, used to resume an
+ * interrupted import after the last resource that was imported. The journal
+ * starts with a digest of the ordered resources, followed by one line per
+ * successful DocumentImporter call with the position and URL of the last
+ * resource it imported. Every line is synced to disk before the import
+ * continues.
+ */
+public class ImportCheckpoint {
+    private static final Logger LOGGER = Logger.getLogger(ImportCheckpoint.class.getName());
+
+    private static final String HEADER_PREFIX = "# content import checkpoint\t";
+    private static final String ENCODING = "UTF-8";
+    private static final char SEPARATOR = '\t';
+
+    private final File file;
+    private final Map<String, Integer> indexByResource;
+    private final int resumeIndex;
+    private FileOutputStream outputStream;
+
+    private ImportCheckpoint(File file, List<URL> resources, int resumeIndex, boolean append) throws IOException {
+        this.file = file;
+        this.resumeIndex = resumeIndex;
+
+        indexByResource = new HashMap<String, Integer>(resources.size() * 2);
+
+        for (int i = 0; i < resources.size(); i++) {
+            indexByResource.put(String.valueOf(resources.get(i)), i);
+        }
+
+        outputStream = new FileOutputStream(file, append);
+
+        if (!append) {
+            write(HEADER_PREFIX + digest(resources) + SEPARATOR + resources.size() + "\n");
+        }
+    }
+
+    /**
+     * Starts a new journal for the resources, replacing any existing one.
+     */
+    public static ImportCheckpoint start(File file, List<URL> resources) throws IOException {
+        return new ImportCheckpoint(file, resources, 0, false);
+    }
+
+    /**
+     * Continues the journal of an interrupted import of the resources. If
+     * there is no journal, or if it was written for a different ordered set
+     * of resources, a new journal is started and nothing will be skipped.
+     */
+    public static ImportCheckpoint resume(File file, List<URL> resources) throws IOException {
+        if (!file.exists()) {
+            return start(file, resources);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        int lastImported = -1;
+
+        try {
+            String header = reader.readLine();
+
+            if (header == null || !header.equals(HEADER_PREFIX + digest(resources) + SEPARATOR + resources.size())) {
+                LOGGER.log(Level.WARNING, "The checkpoint " + file + " was written for a different set of resources. " +
+                                          "Importing all resources.");
+                reader.close();
+
+                return start(file, resources);
+            }
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                // a line that was only partially written before a crash will not match.
+                int separator = line.indexOf(SEPARATOR);
+
+                if (separator == -1) {
+                    continue;
+                }
+
+                try {
+                    int index = Integer.parseInt(line.substring(0, separator));
+
+                    if (index >= 0 && index < resources.size() &&
+                            String.valueOf(resources.get(index)).equals(line.substring(separator + 1))) {
+                        lastImported = Math.max(lastImported, index);
+                    }
+                } catch (NumberFormatException e) {
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return new ImportCheckpoint(file, resources, lastImported + 1, true);
+    }
+
+    /**
+     * @return the position in the ordered resources to continue the import
+     *         from.
+     */
+    public int getResumeIndex() {
+        return resumeIndex;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Durably records that all resources up to and including the specified
+     * one have been imported.
+     */
+    public void imported(URL resource) throws IOException {
+        Integer index = indexByResource.get(String.valueOf(resource));
+
+        if (index == null) {
+            throw new IllegalArgumentException(resource + " is not part of the checkpointed import.");
+        }
+
+        write(index + String.valueOf(SEPARATOR) + resource + "\n");
+    }
+
+    /**
+     * Removes the journal once the import has completed.
+     */
+    public void complete() {
+        close();
+
+        if (!file.delete()) {
+            LOGGER.log(Level.WARNING, "Could not delete completed checkpoint " + file + ".");
+        }
+    }
+
+    /**
+     * Closes the journal, leaving it in place to resume from.
+     */
+    public void close() {
+        if (outputStream == null) {
+            return;
+        }
+
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Caught exception while trying to close checkpoint " + file, e);
+        }
+
+        outputStream = null;
+    }
+
+    private void write(String line) throws IOException {
+        outputStream.write(line.getBytes(ENCODING));
+        outputStream.flush();
+        outputStream.getFD().sync();
+    }
+
+    private static String digest(List<URL> resources) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+            for (URL resource : resources) {
+                digest.update(String.valueOf(resource).getBytes(ENCODING));
+                digest.update((byte) '\n');
+            }
+
+            StringBuilder hex = new StringBuilder(40);
+
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "import checkpoint " + file;
+    }
+}
@@ -0,0 +1,29 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+
+/**
+ * A resource that could not be imported, along with the reason.
+ */
+public class ImportFailure {
+    private final URL resource;
+    private final Exception exception;
+
+    public ImportFailure(URL resource, Exception exception) {
+        this.resource = resource;
+        this.exception = exception;
+    }
+
+    public URL getResource() {
+        return resource;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return resource + ": " + exception;
+    }
+}
@@ -0,0 +1,19 @@
+package com.polopoly.ps.contentimporter;
+
+/**
+ * Receives the measurements of every resource of an import run. All methods
+ * are called from the importing thread, in import order.
+ *
+ * @see StandardContentImportHandler#setInstrumentation(ImportInstrumentation)
+ */
+public interface ImportInstrumentation {
+    void runStarted(int resources);
+
+    /**
+     * Called when a resource has been imported or has failed. The metrics
+     * must not be modified.
+     */
+    void resourceCompleted(ResourceMetrics metrics);
+
+    void runCompleted();
+}
@@ -0,0 +1,189 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk record of the fingerprints of successfully imported resources,
+ * used to skip resources that are unchanged since they were last imported.
+ * Resources are only recorded after they have been imported, and the ledger
+ * file is replaced atomically when saved, so an interrupted import never
+ * marks resources that were not imported as done.
+ */
+public class ImportLedger {
+    private static final Logger LOGGER = Logger.getLogger(ImportLedger.class.getName());
+
+    private static final String HEADER = "# content import ledger: checksum, size, last modified, resource";
+    private static final String ENCODING = "UTF-8";
+    private static final char SEPARATOR = '\t';
+
+    private final File file;
+    private final ConcurrentMap<String, ResourceFingerprint> fingerprints =
+        new ConcurrentHashMap<String, ResourceFingerprint>();
+    private volatile boolean modified;
+
+    /**
+     * Loads the ledger from the file, if it exists.
+     */
+    public ImportLedger(File file) throws IOException {
+        this.file = file;
+
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the fingerprint of the resource when it was last imported or
+     *         null if it has not been imported.
+     */
+    public ResourceFingerprint get(String resource) {
+        return fingerprints.get(resource);
+    }
+
+    /**
+     * Records that the resource with the specified fingerprint has been
+     * imported. Only written to disk by {@link #save()}.
+     */
+    public void record(String resource, ResourceFingerprint fingerprint) {
+        ResourceFingerprint previous = fingerprints.put(resource, fingerprint);
+
+        if (!fingerprint.equals(previous)) {
+            modified = true;
+        }
+    }
+
+    public void clear() {
+        if (!fingerprints.isEmpty()) {
+            fingerprints.clear();
+            modified = true;
+        }
+    }
+
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * Writes the ledger to a temporary file that then atomically replaces the
+     * ledger file. Does nothing if nothing was recorded since the last save.
+     */
+    public synchronized void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+
+        modified = false;
+
+        File directory = file.getAbsoluteFile().getParentFile();
+
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory + " for import ledger.");
+        }
+
+        File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+
+        try {
+            FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, ENCODING));
+
+                writer.write(HEADER);
+                writer.write('\n');
+
+                // sorted for stable, diffable ledger files.
+                for (Map.Entry<String, ResourceFingerprint> entry :
+                        new TreeMap<String, ResourceFingerprint>(fingerprints).entrySet()) {
+                    ResourceFingerprint fingerprint = entry.getValue();
+
+                    writer.write(Long.toString(fingerprint.getChecksum()));
+                    writer.write(SEPARATOR);
+                    writer.write(Long.toString(fingerprint.getSize()));
+                    writer.write(SEPARATOR);
+                    writer.write(Long.toString(fingerprint.getLastModified()));
+                    writer.write(SEPARATOR);
+                    writer.write(entry.getKey());
+                    writer.write('\n');
+                }
+
+                writer.flush();
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+
+            try {
+                Files.move(temporaryFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            modified = true;
+            throw e;
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                LOGGER.log(Level.WARNING, "Could not delete temporary import ledger " + temporaryFile);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+
+        try {
+            String line;
+            int atLine = 0;
+
+            while ((line = reader.readLine()) != null) {
+                atLine++;
+
+                if (line.startsWith("#") || line.trim().equals("")) {
+                    continue;
+                }
+
+                String[] fields = line.split(String.valueOf(SEPARATOR), 4);
+
+                if (fields.length != 4) {
+                    LOGGER.log(Level.WARNING, "Ignoring malformed line " + atLine + " in import ledger " + file + ".");
+                    continue;
+                }
+
+                try {
+                    fingerprints.put(fields[3], new ResourceFingerprint(
+                        Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[0])));
+                } catch (NumberFormatException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring malformed line " + atLine + " in import ledger " + file + ".");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "import ledger " + file;
+    }
+}
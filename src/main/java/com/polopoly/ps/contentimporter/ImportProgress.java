@@ -0,0 +1,54 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+
+/**
+ * The progress of an import run. Resources skipped because they were invalid
+ * or unchanged are not counted as completed, so a run may end before the
+ * completed count reaches the total.
+ */
+public class ImportProgress {
+    private final int resourcesCompleted;
+    private final int totalResources;
+    private final long bytesProcessed;
+    private final URL currentResource;
+
+    public ImportProgress(int resourcesCompleted, int totalResources, long bytesProcessed, URL currentResource) {
+        this.resourcesCompleted = resourcesCompleted;
+        this.totalResources = totalResources;
+        this.bytesProcessed = bytesProcessed;
+        this.currentResource = currentResource;
+    }
+
+    /**
+     * @return the number of resources imported or failed so far.
+     */
+    public int getResourcesCompleted() {
+        return resourcesCompleted;
+    }
+
+    public int getTotalResources() {
+        return totalResources;
+    }
+
+    /**
+     * @return the number of bytes read from the completed resources, where
+     *         known.
+     */
+    public long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    /**
+     * @return the resource that was just completed.
+     */
+    public URL getCurrentResource() {
+        return currentResource;
+    }
+
+    @Override
+    public String toString() {
+        return resourcesCompleted + "/" + totalResources + " resource(s), " + bytesProcessed + " bytes, at " +
+            currentResource;
+    }
+}
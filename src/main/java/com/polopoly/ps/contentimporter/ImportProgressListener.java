@@ -0,0 +1,9 @@
+package com.polopoly.ps.contentimporter;
+
+/**
+ * Notified of the progress of an import run, from the importing thread, after
+ * every resource that was imported or failed.
+ */
+public interface ImportProgressListener {
+    void progress(ImportProgress progress);
+}
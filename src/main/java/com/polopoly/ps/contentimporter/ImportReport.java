@@ -0,0 +1,67 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of an import run: the number of imported resources and the
+ * resources that failed and were skipped.
+ */
+public class ImportReport {
+    private int importedCount;
+    private final List<ImportFailure> failures = new ArrayList<ImportFailure>();
+    private long bytesProcessed;
+    private long elapsedMillis;
+
+    public void resourceImported() {
+        importedCount++;
+    }
+
+    public void resourceFailed(URL resource, Exception exception) {
+        failures.add(new ImportFailure(resource, exception));
+    }
+
+    /**
+     * @return the number of imported resources or, in a dry run, the number
+     *         of resources that were validated.
+     */
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    public List<ImportFailure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return the number of bytes read from the imported resources, where
+     *         known.
+     */
+    public long getBytesProcessed() {
+        return bytesProcessed;
+    }
+
+    public void setBytesProcessed(long bytesProcessed) {
+        this.bytesProcessed = bytesProcessed;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return importedCount + " resource(s) imported, " + failures.size() + " failed" +
+            (failures.isEmpty() ? "" : ": " + failures);
+    }
+}
@@ -0,0 +1,27 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.InputStream;
+
+/**
+ * The target the XML of every import batch is passed to. A sink that can
+ * read a document from a stream is given the XML encoded as UTF-8, so that
+ * the converted XML of a <code>.content</code> file is written straight to
+ * bytes and a batch is never merged into a single string. Other sinks, such
+ * as a {@link DocumentImporterSink}, are given the document as a string.
+ */
+public interface ImportSink {
+    /**
+     * @return true if documents should be passed to
+     *         {@link #importXml(InputStream)} rather than
+     *         {@link #importXml(String)}.
+     */
+    boolean isStreaming();
+
+    void importXml(String xml) throws Exception;
+
+    /**
+     * Imports a document encoded as UTF-8. The stream is closed by the
+     * caller.
+     */
+    void importXml(InputStream xml) throws Exception;
+}
@@ -0,0 +1,24 @@
+package com.polopoly.ps.contentimporter;
+
+/**
+ * The stages a resource passes through when imported.
+ */
+public enum ImportStage {
+    /**
+     * Opening and reading the resource.
+     */
+    READ,
+    /**
+     * Parsing <code>.content</code> files, or lifting the body out of batch
+     * documents when batching.
+     */
+    PARSE,
+    /**
+     * Writing parsed <code>.content</code> files as content XML.
+     */
+    WRITE,
+    /**
+     * Passing the XML to the DocumentImporter.
+     */
+    IMPORT
+}
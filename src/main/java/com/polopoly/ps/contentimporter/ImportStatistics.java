@@ -0,0 +1,273 @@
+package com.polopoly.ps.contentimporter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aggregates the measurements of an import run in memory and logs a summary
+ * when the run completes: the percentiles of the time spent per resource in
+ * each stage and the slowest resources. The times are recorded in fixed size
+ * histograms with a precision of about three percent, so memory use does not
+ * grow with the number of resources and recording allocates nothing.
+ */
+public class ImportStatistics implements ImportInstrumentation {
+    private static final Logger LOGGER = Logger.getLogger(ImportStatistics.class.getName());
+
+    public static final int DEFAULT_SLOWEST_COUNT = 10;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private static final ImportStage[] STAGES = ImportStage.values();
+
+    private final long[][] stageHistograms = new long[STAGES.length][BUCKET_COUNT];
+    private final long[] totalHistogram = new long[BUCKET_COUNT];
+    private final long[] stageMaxNanos = new long[STAGES.length];
+    private final int[] failuresByStage = new int[STAGES.length];
+    private final ResourceMetrics[] slowest;
+
+    private int slowestCount;
+    private int expectedResources;
+    private int resourceCount;
+    private long bytesRead;
+    private long xmlSize;
+    private long contentCount;
+    private long startNanos;
+    private long elapsedNanos;
+
+    public ImportStatistics() {
+        this(DEFAULT_SLOWEST_COUNT);
+    }
+
+    /**
+     * @param slowestCount the number of slowest resources to keep.
+     */
+    public ImportStatistics(int slowestCount) {
+        slowest = new ResourceMetrics[slowestCount];
+    }
+
+    public synchronized void runStarted(int resources) {
+        for (long[] histogram : stageHistograms) {
+            Arrays.fill(histogram, 0);
+        }
+
+        Arrays.fill(totalHistogram, 0);
+        Arrays.fill(stageMaxNanos, 0);
+        Arrays.fill(failuresByStage, 0);
+        Arrays.fill(slowest, null);
+
+        slowestCount = 0;
+        expectedResources = resources;
+        resourceCount = 0;
+        bytesRead = 0;
+        xmlSize = 0;
+        contentCount = 0;
+        elapsedNanos = 0;
+        startNanos = System.nanoTime();
+    }
+
+    public synchronized void resourceCompleted(ResourceMetrics metrics) {
+        resourceCount++;
+
+        for (int i = 0; i < STAGES.length; i++) {
+            long nanos = metrics.getNanos(STAGES[i]);
+
+            stageHistograms[i][bucket(nanos)]++;
+            stageMaxNanos[i] = Math.max(stageMaxNanos[i], nanos);
+        }
+
+        totalHistogram[bucket(metrics.getTotalNanos())]++;
+
+        if (metrics.getFailureStage() != null) {
+            failuresByStage[metrics.getFailureStage().ordinal()]++;
+        }
+
+        if (metrics.getBytesRead() > 0) {
+            bytesRead += metrics.getBytesRead();
+        }
+
+        xmlSize += metrics.getXmlSize();
+        contentCount += metrics.getContentCount();
+
+        recordSlowest(metrics);
+    }
+
+    public synchronized void runCompleted() {
+        elapsedNanos = System.nanoTime() - startNanos;
+
+        LOGGER.log(Level.INFO, getSummary());
+    }
+
+    public synchronized int getResourceCount() {
+        return resourceCount;
+    }
+
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    public synchronized long getXmlSize() {
+        return xmlSize;
+    }
+
+    public synchronized long getContentCount() {
+        return contentCount;
+    }
+
+    public synchronized int getFailureCount(ImportStage stage) {
+        return failuresByStage[stage.ordinal()];
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the time in nanoseconds that the specified percentage of the
+     *         resources spent at most in the stage.
+     */
+    public synchronized long getPercentileNanos(ImportStage stage, double percentile) {
+        return percentile(stageHistograms[stage.ordinal()], stageMaxNanos[stage.ordinal()], percentile);
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the time in nanoseconds that the specified percentage of the
+     *         resources spent at most in all stages.
+     */
+    public synchronized long getTotalPercentileNanos(double percentile) {
+        return percentile(totalHistogram, Long.MAX_VALUE, percentile);
+    }
+
+    /**
+     * @return the slowest resources, slowest first.
+     */
+    public synchronized List<ResourceMetrics> getSlowest() {
+        return Arrays.asList(Arrays.copyOf(slowest, slowestCount));
+    }
+
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+
+        summary.append("Content import statistics: ").append(resourceCount).append(" of ").append(expectedResources)
+            .append(" resource(s), ").append(contentCount).append(" content object(s), ").append(bytesRead)
+            .append(" bytes read, ").append(xmlSize).append(" characters of XML");
+
+        if (elapsedNanos > 0) {
+            summary.append(" in ").append(elapsedNanos / 1000000).append(" ms");
+        }
+
+        summary.append('\n');
+
+        for (ImportStage stage : STAGES) {
+            summary.append(String.format("  %-6s p50 %8.2f ms, p90 %8.2f ms, p99 %8.2f ms, max %8.2f ms, %d failed%n",
+                stage.name().toLowerCase(),
+                millis(getPercentileNanos(stage, 50)),
+                millis(getPercentileNanos(stage, 90)),
+                millis(getPercentileNanos(stage, 99)),
+                millis(stageMaxNanos[stage.ordinal()]),
+                failuresByStage[stage.ordinal()]));
+        }
+
+        if (slowestCount > 0) {
+            summary.append("  slowest:\n");
+
+            for (int i = 0; i < slowestCount; i++) {
+                summary.append("    ").append(slowest[i]).append('\n');
+            }
+        }
+
+        return summary.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+
+    private void recordSlowest(ResourceMetrics metrics) {
+        if (slowest.length == 0) {
+            return;
+        }
+
+        long total = metrics.getTotalNanos();
+        int position = slowestCount;
+
+        if (position == slowest.length) {
+            if (slowest[position - 1].getTotalNanos() >= total) {
+                return;
+            }
+
+            position--;
+        } else {
+            slowestCount++;
+        }
+
+        while (position > 0 && slowest[position - 1].getTotalNanos() < total) {
+            slowest[position] = slowest[position - 1];
+            position--;
+        }
+
+        slowest[position] = metrics;
+    }
+
+    private static long percentile(long[] histogram, long max, double percentile) {
+        long count = 0;
+
+        for (long bucketCount : histogram) {
+            count += bucketCount;
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket), max);
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Values below {@link #LINEAR_BUCKETS} have a bucket each, larger values
+     * share a bucket with the values with the same highest
+     * {@link #SUB_BUCKET_BITS} + 1 bits.
+     */
+    static int bucket(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value in the bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
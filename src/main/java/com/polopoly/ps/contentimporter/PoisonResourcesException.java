@@ -0,0 +1,19 @@
+package com.polopoly.ps.contentimporter;
+
+/**
+ * Thrown at the end of an import run that isolated failing resources, after
+ * all other resources have been imported.
+ */
+@SuppressWarnings("serial")
+public class PoisonResourcesException extends ContentImportHandlerException {
+    private final ImportReport report;
+
+    public PoisonResourcesException(ImportReport report) {
+        super("Content import failed for " + report.getFailures().size() + " resource(s): " + report);
+        this.report = report;
+    }
+
+    public ImportReport getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,34 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+
+/**
+ * Thrown when a resource could not be read or converted to content XML.
+ */
+@SuppressWarnings("serial")
+public class ResourceConversionException extends ContentImportHandlerException {
+    private final URL resource;
+    private final ResourceMetrics metrics;
+
+    public ResourceConversionException(URL resource, Throwable cause) {
+        this(resource, cause, null);
+    }
+
+    public ResourceConversionException(URL resource, Throwable cause, ResourceMetrics metrics) {
+        super("Content import of '" + resource + "' failed! See error message below:", cause);
+        this.resource = resource;
+        this.metrics = metrics;
+    }
+
+    public URL getResource() {
+        return resource;
+    }
+
+    /**
+     * @return the measurements of the resource up to the failure, or null if
+     *         not measured.
+     */
+    public ResourceMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,97 @@
+package com.polopoly.ps.contentimporter;
+
+import java.util.zip.CRC32;
+
+/**
+ * The size, modification time and content checksum of an imported resource,
+ * used to tell whether it has changed since it was last imported.
+ */
+public class ResourceFingerprint {
+    /**
+     * Value of the checksum if it is not known.
+     */
+    public static final long UNKNOWN_CHECKSUM = -1;
+
+    private final long size;
+    private final long lastModified;
+    private final long checksum;
+
+    public ResourceFingerprint(long size, long lastModified, long checksum) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return a fingerprint with the size and checksum computed from the
+     *         content.
+     */
+    public ResourceFingerprint withContent(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+
+        return new ResourceFingerprint(content.length, lastModified, crc.getValue());
+    }
+
+    /**
+     * @return a fingerprint with the size and CRC-32 checksum of the content,
+     *         computed while it was read.
+     */
+    public ResourceFingerprint withContent(long size, long checksum) {
+        return new ResourceFingerprint(size, lastModified, checksum);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public boolean hasChecksum() {
+        return checksum != UNKNOWN_CHECKSUM;
+    }
+
+    /**
+     * Whether the resource is unchanged judging from its size and modification
+     * time (and checksum, if known) alone, without reading it.
+     */
+    public boolean isQuickMatch(ResourceFingerprint previous) {
+        return previous != null && lastModified != 0 && previous.lastModified == lastModified &&
+            previous.size == size && (!hasChecksum() || previous.checksum == checksum);
+    }
+
+    /**
+     * Whether the resource has the same content, regardless of its
+     * modification time.
+     */
+    public boolean isContentMatch(ResourceFingerprint previous) {
+        return previous != null && hasChecksum() && previous.size == size && previous.checksum == checksum;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ResourceFingerprint)) {
+            return false;
+        }
+
+        ResourceFingerprint other = (ResourceFingerprint) obj;
+
+        return other.size == size && other.lastModified == lastModified && other.checksum == checksum;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (size * 31 + lastModified * 17 + checksum);
+    }
+
+    @Override
+    public String toString() {
+        return "size " + size + ", modified " + lastModified + ", checksum " + checksum;
+    }
+}
@@ -0,0 +1,132 @@
+package com.polopoly.ps.contentimporter;
+
+import java.net.URL;
+
+/**
+ * The measurements of a single imported resource. Resources imported in the
+ * same batch share the time of the batch's DocumentImporter call, see
+ * {@link #getBatchSize()}.
+ */
+public class ResourceMetrics {
+    private static final int STAGE_COUNT = ImportStage.values().length;
+
+    private final URL resource;
+    private final long[] stageNanos = new long[STAGE_COUNT];
+    private long bytesRead = -1;
+    private long xmlSize;
+    private int contentCount;
+    private int batchSize = 1;
+    private ImportStage failureStage;
+
+    public ResourceMetrics(URL resource) {
+        this.resource = resource;
+    }
+
+    public URL getResource() {
+        return resource;
+    }
+
+    /**
+     * @return the time spent in the stage in nanoseconds.
+     */
+    public long getNanos(ImportStage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * @return the time spent in all stages in nanoseconds.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+
+        for (long nanos : stageNanos) {
+            total += nanos;
+        }
+
+        return total;
+    }
+
+    public void addNanos(ImportStage stage, long nanos) {
+        stageNanos[stage.ordinal()] += nanos;
+    }
+
+    /**
+     * @return the number of bytes read from the resource or -1 if unknown.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * @return the size of the produced XML in characters.
+     */
+    public long getXmlSize() {
+        return xmlSize;
+    }
+
+    public void setXmlSize(long xmlSize) {
+        this.xmlSize = xmlSize;
+    }
+
+    /**
+     * @return the number of content objects in a <code>.content</code> file,
+     *         zero for other resources.
+     */
+    public int getContentCount() {
+        return contentCount;
+    }
+
+    public void setContentCount(int contentCount) {
+        this.contentCount = contentCount;
+    }
+
+    /**
+     * @return the number of resources imported in the DocumentImporter call
+     *         that imported this resource.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the stage the resource failed in or null if it was imported.
+     */
+    public ImportStage getFailureStage() {
+        return failureStage;
+    }
+
+    public void setFailureStage(ImportStage failureStage) {
+        this.failureStage = failureStage;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+
+        result.append(resource).append(": ").append(getTotalNanos() / 1000000).append(" ms (");
+
+        for (ImportStage stage : ImportStage.values()) {
+            if (stage.ordinal() > 0) {
+                result.append(", ");
+            }
+
+            result.append(stage.name().toLowerCase()).append(' ').append(getNanos(stage) / 1000000).append(" ms");
+        }
+
+        result.append(')');
+
+        if (failureStage != null) {
+            result.append(", failed in ").append(failureStage.name().toLowerCase());
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,282 @@
+package com.polopoly.ps.contentimporter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.polopoly.ps.contentimporter.hotdeploy.util.ResourceLoader;
+
+/**
+ * Opens the resources of an import run, each of them once. Archives referred
+ * to by <code>jar:</code> URLs are opened once per run and kept open until the
+ * resolver is closed, rather than being looked up (and with caching disabled,
+ * reopened) for every entry. Thread safe.
+ */
+public class ResourceResolver {
+    private static final Logger LOGGER = Logger.getLogger(ResourceResolver.class.getName());
+
+    private static final String JAR_PROTOCOL = "jar";
+    private static final String JAR_SEPARATOR = "!/";
+
+    private final ConcurrentMap<File, JarFile> jarFiles = new ConcurrentHashMap<File, JarFile>();
+    private volatile boolean closed;
+
+    /**
+     * A resource that has been found. The stream is opened at most once, on
+     * the first call to {@link #getInputStream()}.
+     */
+    public static class Resource {
+        private final URL url;
+        private final File file;
+        private final JarFile jarFile;
+        private final JarEntry jarEntry;
+        private final long length;
+        private final long lastModified;
+        private InputStream inputStream;
+
+        private Resource(URL url, File file, JarFile jarFile, JarEntry jarEntry, InputStream inputStream,
+                         long length, long lastModified) {
+            this.url = url;
+            this.file = file;
+            this.jarFile = jarFile;
+            this.jarEntry = jarEntry;
+            this.inputStream = inputStream;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the local file of the resource or null if it is not a local
+         *         file (e.g. an entry in an archive).
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the length of the resource in bytes or -1 if unknown.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the modification time of the resource in milliseconds since
+         *         the epoch or 0 if unknown.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the CRC-32 checksum of the resource if it is known without
+         *         reading the resource (i.e. for archive entries), otherwise
+         *         -1.
+         */
+        public long getChecksum() {
+            if (jarEntry != null) {
+                return jarEntry.getCrc();
+            }
+
+            return -1;
+        }
+
+        /**
+         * @return the archive of the resource or null if it is not an entry
+         *         in an archive.
+         */
+        JarFile getJarFile() {
+            return jarFile;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                if (file != null) {
+                    inputStream = new FileInputStream(file);
+                } else {
+                    inputStream = jarFile.getInputStream(jarEntry);
+                }
+            }
+
+            return inputStream;
+        }
+
+        /**
+         * Reads all bytes of the resource.
+         */
+        public byte[] readBytes() throws IOException {
+            if (file != null && inputStream == null) {
+                return ResourceLoader.readBytes(file);
+            }
+
+            return ResourceLoader.readBytes(getInputStream(), length);
+        }
+
+        /**
+         * Reads the resource as XML, detecting its encoding.
+         */
+        public String readXml() throws IOException {
+            if (file != null && inputStream == null) {
+                return ResourceLoader.readXml(url);
+            }
+
+            return ResourceLoader.decodeXml(ByteBuffer.wrap(readBytes()));
+        }
+
+        public void close() {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Caught exception while trying to close input stream of " + url, e);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url.toString();
+        }
+    }
+
+    /**
+     * Finds the resource, opening its stream right away only if that is the
+     * only way of telling whether it exists.
+     *
+     * @throws FileNotFoundException if the resource does not exist.
+     * @throws IOException if the resource could not be accessed.
+     */
+    public Resource open(URL url) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The resource resolver has been closed.");
+        }
+
+        File file = ResourceLoader.toFile(url);
+
+        if (file != null) {
+            if (!file.isFile()) {
+                throw new FileNotFoundException(url.toString());
+            }
+
+            return new Resource(url, file, null, null, null, file.length(), file.lastModified());
+        }
+
+        if (JAR_PROTOCOL.equals(url.getProtocol())) {
+            Resource resource = openJarEntry(url);
+
+            if (resource != null) {
+                return resource;
+            }
+        }
+
+        URLConnection connection = url.openConnection();
+        InputStream inputStream = connection.getInputStream();
+
+        return new Resource(url, null, null, null, inputStream,
+            connection.getContentLengthLong(), connection.getLastModified());
+    }
+
+    /**
+     * @return whether the resource exists.
+     */
+    public boolean exists(URL url) {
+        try {
+            Resource resource = open(url);
+            resource.close();
+
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes all archives opened by this resolver.
+     */
+    public void close() {
+        closed = true;
+
+        List<JarFile> toClose = new ArrayList<JarFile>(jarFiles.values());
+        jarFiles.clear();
+
+        for (JarFile jarFile : toClose) {
+            try {
+                jarFile.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Caught exception while trying to close " + jarFile.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the resource or null if the archive is not a local file.
+     */
+    private Resource openJarEntry(URL url) throws IOException {
+        String spec = url.getFile();
+        int separator = spec.indexOf(JAR_SEPARATOR);
+
+        if (separator == -1) {
+            return null;
+        }
+
+        File archive = ResourceLoader.toFile(new URL(spec.substring(0, separator)));
+
+        if (archive == null) {
+            return null;
+        }
+
+        JarFile jarFile = getJarFile(archive);
+        String entryName = decode(spec.substring(separator + JAR_SEPARATOR.length()));
+        JarEntry entry = jarFile.getJarEntry(entryName);
+
+        if (entry == null || entry.isDirectory()) {
+            throw new FileNotFoundException("JAR entry " + entryName + " not found in " + archive);
+        }
+
+        return new Resource(url, null, jarFile, entry, null, entry.getSize(), Math.max(entry.getTime(), 0));
+    }
+
+    private JarFile getJarFile(File archive) throws IOException {
+        JarFile jarFile = jarFiles.get(archive);
+
+        if (jarFile == null) {
+            JarFile opened = new JarFile(archive, false);
+            jarFile = jarFiles.putIfAbsent(archive, opened);
+
+            if (jarFile == null) {
+                jarFile = opened;
+            } else {
+                opened.close();
+            }
+        }
+
+        return jarFile;
+    }
+
+    private static String decode(String entryName) {
+        try {
+            return new URI(entryName).getPath();
+        } catch (URISyntaxException e) {
+            return entryName;
+        }
+    }
+}
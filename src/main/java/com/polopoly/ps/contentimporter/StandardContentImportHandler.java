@@ -1,20 +1,47 @@
 package com.polopoly.ps.contentimporter;
 
 import com.polopoly.cm.xml.DocumentImporter;
+import com.polopoly.ps.contentimporter.hotdeploy.text.Base64Cache;
+import com.polopoly.ps.contentimporter.hotdeploy.text.DocumentOutput;
+import com.polopoly.ps.contentimporter.hotdeploy.text.SpilledTextContentSet;
 import com.polopoly.ps.contentimporter.hotdeploy.text.TextContentParser;
 import com.polopoly.ps.contentimporter.hotdeploy.text.TextContentSet;
 import com.polopoly.ps.contentimporter.hotdeploy.text.TextContentXmlWriter;
+import com.polopoly.ps.contentimporter.hotdeploy.util.ResourceLoader;
+import com.polopoly.ps.contentimporter.hotdeploy.util.Utf8Writer;
+import com.polopoly.ps.contentimporter.hotdeploy.util.XmlParserPool;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Implementation of {@link ContentImportHandler} that uses the Polopoly product
@@ -23,7 +50,7 @@ import java.util.logging.Logger;
  * product code.
  * 
  */
-public class StandardContentImportHandler implements ContentImportHandler {
+public class StandardContentImportHandler implements AsyncContentImportHandler {
 
     protected static Logger LOGGER = Logger.getLogger(StandardContentImportHandler.class.getName());
 
@@ -33,15 +60,304 @@ public class StandardContentImportHandler implements ContentImportHandler {
     protected static final String WARNING_RESOURCE_TYPE_NOT_SUPPORTED =
         "Resource type not supported: '%1$s'. Supported types are: '.content' and '.xml'";
     protected static final String SEVERE_CONTENT_IMPORT_FAILED = "Content import failed! See error message below:";
+    protected static final String SEVERE_BATCH_IMPORT_FAILED =
+        "Content import of batch containing %1$s failed! See error message below:";
 
     protected static final String INFO_CONTENT_IMPORT_SUCCEDED = "Content import of: '%1$s' succeeded.";
+    protected static final String INFO_CONTENT_VALIDATED = "Content validation of: '%1$s' succeeded.";
+    protected static final String INFO_CONTENT_IMPORT_UNCHANGED =
+        "Content import of: '%1$s' skipped, unchanged since last import.";
+    protected static final String WARNING_LEDGER_NOT_SAVED = "Could not save %1$s: %2$s";
+    protected static final String SEVERE_CHECKPOINT_FAILED = "Could not write import checkpoint %1$s";
+    protected static final String INFO_RESUMING_IMPORT =
+        "Resuming content import after %1$d of %2$d resources recorded in checkpoint %3$s.";
+
+    protected static final String SEVERE_RESOURCE_ISOLATED =
+        "Content import of: '%1$s' failed and was skipped: %2$s";
+    protected static final String WARNING_TRANSIENT_FAILURE_RETRY =
+        "Content import of %1$s failed with a transient error, retrying in %2$d ms: %3$s";
+    protected static final String INFO_DRY_RUN_COMPLETED =
+        "Dry run validated %1$d resource(s), %2$d bytes, in %3$d ms (%4$.1f resources/s, %5$.2f MB/s), %6$d failed.";
+    protected static final String WARNING_BATCH_FAILURE_BISECT =
+        "Content import of batch containing %1$s failed, retrying in halves: %2$s";
+
+    private static final int DEFAULT_QUEUE_DEPTH_PER_WORKER = 2;
+    private static final int DEFAULT_TRANSIENT_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BACKOFF_MILLIS = 1000;
+
+    private static final AtomicInteger asyncRunCount = new AtomicInteger();
     
     private final ContentImportLogger logger;
 
-    private final DocumentImporter documentImporter;
+    private final ImportSink importSink;
+
+    private int parallelism = 1;
+
+    private int queueDepth;
+
+    private int batchMaxResources = 1;
+
+    private long batchMaxSize;
+
+    private boolean isolateFailures;
+
+    private int transientRetries = DEFAULT_TRANSIENT_RETRIES;
+
+    private long retryBackoffMillis = DEFAULT_RETRY_BACKOFF_MILLIS;
+
+    private volatile ImportReport lastImportReport;
+
+    private ImportLedger importLedger;
+
+    private boolean forceFullImport;
+
+    private File checkpointFile;
+
+    private Executor asyncExecutor;
+
+    private ImportInstrumentation instrumentation;
+
+    private boolean dryRun;
+
+    private long contentSpillThreshold = -1;
+
+    private int contentDocumentMaxObjects;
+
+    private long contentDocumentMaxSize;
+
+    private long base64CacheSize = TextContentXmlWriter.DEFAULT_BASE64_CACHE_SIZE;
+
+    /**
+     * The state of a single import run.
+     */
+    private static class ImportRun {
+        private final ImportReport report = new ImportReport();
+        private final ImportProgressListener listener;
+        private final Future<?> future;
+        private ImportCheckpoint checkpoint;
+        private ImportInstrumentation instrumentation;
+        private int resourcesCompleted;
+        private int totalResources;
+        private long bytesProcessed;
+
+        private ImportRun(ImportProgressListener listener, Future<?> future) {
+            this.listener = listener;
+            this.future = future;
+        }
+
+        private boolean isCancelled() {
+            return future != null && future.isCancelled();
+        }
+    }
+
+    /**
+     * Counts and checksums the bytes of a <code>.content</code> file as it
+     * is parsed, so that it need not be read into memory first.
+     */
+    private static class MeasuredInputStream extends CheckedInputStream {
+        private long count;
+
+        MeasuredInputStream(InputStream inputStream) {
+            super(inputStream, new CRC32());
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b != -1) {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0) {
+                count += read;
+            }
+
+            return read;
+        }
+
+        /**
+         * Reads what the parser left unread, so that the count and checksum
+         * cover the whole file.
+         */
+        void skipToEnd() throws IOException {
+            byte[] buffer = new byte[8 * 1024];
+
+            while (read(buffer, 0, buffer.length) != -1) {
+                // counted and checksummed by read.
+            }
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The XML of a <code>.content</code> file converted for a streaming
+     * sink, encoded as UTF-8.
+     */
+    private static class EncodedXml extends ByteArrayOutputStream {
+        /**
+         * @return the buffer holding the XML, trimmed if largely unused.
+         */
+        byte[] getBuffer() {
+            if (count < buf.length / 4 * 3) {
+                return Arrays.copyOf(buf, count);
+            }
+
+            return buf;
+        }
+    }
+
+    /**
+     * A .content file large enough to be split into several documents. The
+     * documents are written from the parsed objects when the resource is
+     * imported, each imported as soon as it is complete, so that only one of
+     * them is held in memory at a time.
+     */
+    private static class SplitResource extends ConvertedResource {
+        private final TextContentSet textContentSet;
+        private final Base64Cache base64Cache;
+
+        /**
+         * @param textContentSet the objects to write, or null if the
+         *        documents have already been written when validating.
+         */
+        SplitResource(URL url, String fileName, TextContentSet textContentSet, Base64Cache base64Cache,
+                      ResourceFingerprint fingerprint, ResourceMetrics metrics) {
+            super(url, fileName, fingerprint, metrics);
+            this.textContentSet = textContentSet;
+            this.base64Cache = base64Cache;
+        }
+
+        @Override
+        void release() {
+            if (textContentSet instanceof SpilledTextContentSet) {
+                ((SpilledTextContentSet) textContentSet).close();
+            }
+        }
+    }
+
+    /**
+     * Passes each document a .content file is split into on to be imported
+     * as soon as the writer completes it, as a string or, for a streaming
+     * sink, as UTF-8 bytes. When validating only, the documents are dropped.
+     */
+    private class SplitOutput implements DocumentOutput {
+        private final URL url;
+        private final String fileName;
+        private int xmlLength;
+        private long importNanos;
+
+        SplitOutput(URL url, String fileName) {
+            this.url = url;
+            this.fileName = fileName;
+        }
+
+        public Writer nextDocument() {
+            if (importSink.isStreaming()) {
+                final EncodedXml document = new EncodedXml();
+
+                return new FilterWriter(new Utf8Writer(document)) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        documentCompleted(new ConvertedResource(url, fileName, document.getBuffer(), document.size(),
+                                                                false, null, null));
+                    }
+                };
+            }
+
+            final StringWriter document = new StringWriter();
+
+            return new FilterWriter(document) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    documentCompleted(new ConvertedResource(url, fileName, document.toString()));
+                }
+            };
+        }
+
+        private void documentCompleted(ConvertedResource document) throws DocumentImportException {
+            xmlLength += document.getXmlLength();
+
+            if (dryRun) {
+                return;
+            }
+
+            long start = System.nanoTime();
+
+            try {
+                importBatch(new ImportBatch(Collections.singletonList(document)));
+            } catch (Exception e) {
+                throw new DocumentImportException(e);
+            } finally {
+                importNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * @return the length of the XML of all documents written so far.
+         */
+        int getXmlLength() {
+            return xmlLength;
+        }
+
+        /**
+         * @return the time spent importing the documents written so far.
+         */
+        long getImportNanos() {
+            return importNanos;
+        }
+    }
+
+    /**
+     * Carries a failure to import a split document out of the writer, which
+     * only passes on I/O errors.
+     */
+    @SuppressWarnings("serial")
+    private static class DocumentImportException extends IOException {
+        DocumentImportException(Exception cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized Exception getCause() {
+            return (Exception) super.getCause();
+        }
+    }
+
+    /**
+     * An import run to be started in the background.
+     */
+    private interface ImportTask {
+        void run(ImportRun run) throws ContentImportHandlerException;
+    }
 
     public StandardContentImportHandler(DocumentImporter documentImporter) {
-        this.documentImporter = documentImporter;
+        this(new DocumentImporterSink(documentImporter));
+    }
+
+    public StandardContentImportHandler(DocumentImporter documentImporter, ContentImportLogger logger) {
+        this(new DocumentImporterSink(documentImporter), logger);
+    }
+
+    /**
+     * @param importSink the target of the imported XML. If it is streaming,
+     *        <code>.content</code> files are converted straight to UTF-8 bytes
+     *        and batches are streamed rather than merged into a string.
+     */
+    public StandardContentImportHandler(ImportSink importSink) {
+        this.importSink = importSink;
         this.logger = new ContentImportLogger() {
 			
 			public void warning(String message) {
@@ -62,13 +378,369 @@ public class StandardContentImportHandler implements ContentImportHandler {
 		};
     }
     
-    public StandardContentImportHandler(DocumentImporter documentImporter, ContentImportLogger logger) {
-        this.documentImporter = documentImporter;
+    public StandardContentImportHandler(ImportSink importSink, ContentImportLogger logger) {
+        this.importSink = importSink;
         this.logger = logger;
     }
 
+    /**
+     * Sets the number of worker threads reading, parsing and converting
+     * resources ahead of the import. With a parallelism above one the
+     * resources are still passed to the DocumentImporter one at a time and in
+     * the iteration order of the resource set. Defaults to one, i.e. no
+     * worker threads.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one, was " + parallelism);
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of resources that may be converted ahead of the
+     * resource currently being imported. This bounds the memory used by
+     * converted but not yet imported XML. Values below the parallelism leave
+     * workers idle. Defaults to twice the number of workers, which in a dry
+     * run is at least the number of processors.
+     */
+    public void setQueueDepth(int queueDepth) {
+        if (queueDepth < 1) {
+            throw new IllegalArgumentException("Queue depth must be at least one, was " + queueDepth);
+        }
+
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @return the queue depth the next import uses.
+     */
+    public int getQueueDepth() {
+        if (queueDepth == 0) {
+            return getEffectiveParallelism() * DEFAULT_QUEUE_DEPTH_PER_WORKER;
+        }
+
+        return queueDepth;
+    }
+
+    /**
+     * Sets the maximum number of consecutive resources merged into a single
+     * batch document and DocumentImporter call. Resources that are not
+     * batches, such as template definitions, are always imported on their
+     * own. Defaults to one, i.e. every resource is imported separately.
+     */
+    public void setBatchMaxResources(int batchMaxResources) {
+        if (batchMaxResources < 1) {
+            throw new IllegalArgumentException("Batch max resources must be at least one, was " + batchMaxResources);
+        }
+
+        this.batchMaxResources = batchMaxResources;
+    }
+
+    public int getBatchMaxResources() {
+        return batchMaxResources;
+    }
+
+    /**
+     * Sets the maximum size in characters of the XML of a merged batch. A
+     * single resource larger than the limit is still imported, on its own.
+     * Zero, the default, means no limit.
+     */
+    public void setBatchMaxSize(long batchMaxSize) {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    public long getBatchMaxSize() {
+        return batchMaxSize;
+    }
+
+    /**
+     * If enabled, a failing import does not abort the run. A failed batch of
+     * several resources is split in halves that are retried recursively until
+     * the failing resources are isolated, and resources that can not be
+     * converted are skipped. All other resources are imported, after which a
+     * {@link PoisonResourcesException} listing the failed resources is thrown.
+     * Disabled by default.
+     */
+    public void setIsolateFailures(boolean isolateFailures) {
+        this.isolateFailures = isolateFailures;
+    }
+
+    public boolean isIsolateFailures() {
+        return isolateFailures;
+    }
+
+    /**
+     * Sets how many times an import failing with a transient error (see
+     * {@link #isTransientFailure(Exception)}) is retried before it is
+     * considered failed. Only used when isolating failures.
+     */
+    public void setTransientRetries(int transientRetries) {
+        this.transientRetries = transientRetries;
+    }
+
+    public int getTransientRetries() {
+        return transientRetries;
+    }
+
+    /**
+     * Sets the delay before the first retry of an import failing with a
+     * transient error. The delay doubles for every following retry.
+     */
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    /**
+     * Enables incremental imports: resources are skipped if their size and
+     * modification time, or their content checksum, are the same as when they
+     * were last imported successfully. Successfully imported resources are
+     * recorded in the ledger, which is saved at the end of each import run.
+     * Null, the default, imports every resource.
+     */
+    public void setImportLedger(ImportLedger importLedger) {
+        this.importLedger = importLedger;
+    }
+
+    public ImportLedger getImportLedger() {
+        return importLedger;
+    }
+
+    /**
+     * If set, all resources are imported even if the import ledger says they
+     * are unchanged. The ledger is still updated.
+     */
+    public void setForceFullImport(boolean forceFullImport) {
+        this.forceFullImport = forceFullImport;
+    }
+
+    public boolean isForceFullImport() {
+        return forceFullImport;
+    }
+
+    /**
+     * @return the report of the latest import run, or null if nothing has
+     *         been imported yet.
+     */
+    public ImportReport getLastImportReport() {
+        return lastImportReport;
+    }
+
+    /**
+     * Enables checkpointing of imports by import order: after every
+     * successful DocumentImporter call, the position of the last imported
+     * resource is synced to the checkpoint file, so that an interrupted import
+     * can be continued by {@link #resumeImportByImportOrder(LinkedHashSet)}.
+     * The file is removed when an import completes. Null, the default,
+     * disables checkpointing.
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Sets the executor running asynchronous imports. Null, the default, runs
+     * every asynchronous import in a new daemon thread.
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the instrumentation receiving the time spent in each stage and the
+     * sizes of every imported resource, such as an {@link ImportStatistics}.
+     * When set, <code>.content</code> files are read fully before they are
+     * parsed so that reading and parsing can be told apart. Null, the
+     * default, disables instrumentation.
+     */
+    public void setInstrumentation(ImportInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    public ImportInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Enables a validation-only mode: all resources are read, parsed and
+     * converted to content XML, and <code>.xml</code> files are checked to be
+     * well-formed, using at least one worker thread per processor. Every
+     * failure is collected and reported in a {@link PoisonResourcesException}
+     * at the end of the run, as when isolating failures. Nothing is passed to
+     * the DocumentImporter, and the import ledger and checkpoint are neither
+     * used nor updated.
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Sets the size in bytes above which a .content file is parsed into a
+     * {@link SpilledTextContentSet}, which keeps its objects in a temporary
+     * file rather than in memory while they are converted to XML. Negative,
+     * the default, means never.
+     */
+    public void setContentSpillThreshold(long contentSpillThreshold) {
+        this.contentSpillThreshold = contentSpillThreshold;
+    }
+
+    public long getContentSpillThreshold() {
+        return contentSpillThreshold;
+    }
+
+    /**
+     * Sets the maximum number of Base64 encoded bytes kept of attachments
+     * written more than once during an import run, such as the files of
+     * templates used by several .content files. The cache is shared by all
+     * resources of the run. Zero means attachments are encoded every time
+     * they are written.
+     */
+    public void setBase64CacheSize(long base64CacheSize) {
+        this.base64CacheSize = base64CacheSize;
+    }
+
+    public long getBase64CacheSize() {
+        return base64CacheSize;
+    }
+
+    /**
+     * Sets the maximum number of objects in a document imported from a
+     * .content file. A file with more objects is split into several batch
+     * documents, each imported in its own call in order, starting with the
+     * bootstrap definitions of all of its objects. Every object counts twice,
+     * once for its bootstrap definition and once for its full definition.
+     * Zero, the default, means no limit.
+     */
+    public void setContentDocumentMaxObjects(int contentDocumentMaxObjects) {
+        this.contentDocumentMaxObjects = contentDocumentMaxObjects;
+    }
+
+    public int getContentDocumentMaxObjects() {
+        return contentDocumentMaxObjects;
+    }
+
+    /**
+     * Sets the size in characters at which a document imported from a
+     * .content file is closed and the next one started. Only files larger
+     * than this many bytes are split, as described for
+     * {@link #setContentDocumentMaxObjects(int)}. Zero, the default, means no
+     * limit.
+     */
+    public void setContentDocumentMaxSize(long contentDocumentMaxSize) {
+        this.contentDocumentMaxSize = contentDocumentMaxSize;
+    }
+
+    public long getContentDocumentMaxSize() {
+        return contentDocumentMaxSize;
+    }
+
+    public CompletableFuture<ImportReport> importContentAsync(final Set<URL> resources,
+                                                              ImportProgressListener listener) {
+        return startImport(new ImportTask() {
+            public void run(ImportRun run) throws ContentImportHandlerException {
+                importContentResources(resources, run);
+            }
+        }, listener);
+    }
+
+    public CompletableFuture<ImportReport> importContentByImportOrderAsync(final LinkedHashSet<URL> resources,
+                                                                           ImportProgressListener listener) {
+        return startImport(new ImportTask() {
+            public void run(ImportRun run) throws ContentImportHandlerException {
+                importByImportOrder(resources, run);
+            }
+        }, listener);
+    }
+
     public void importContentByImportOrder(LinkedHashSet<URL> resources) throws ContentImportHandlerException {
-        importContentResources(resources);
+        if (checkpointFile == null || dryRun) {
+            importContentResources(resources);
+            return;
+        }
+
+        importByImportOrder(resources, new ImportRun(null, null));
+    }
+
+    private void importByImportOrder(LinkedHashSet<URL> resources, ImportRun run)
+        throws ContentImportHandlerException {
+        if (checkpointFile != null && !dryRun && resources != null && !resources.isEmpty()) {
+            try {
+                run.checkpoint = ImportCheckpoint.start(checkpointFile, new ArrayList<URL>(resources));
+            } catch (IOException e) {
+                throw new ContentImportHandlerException(String.format(SEVERE_CHECKPOINT_FAILED, checkpointFile), e);
+            }
+        }
+
+        importContentResources(resources, run);
+    }
+
+    /**
+     * Continues an import by import order that was interrupted, skipping the
+     * resources the checkpoint file records as imported. If there is no
+     * checkpoint, or it was written for a different ordered set of resources,
+     * all resources are imported.
+     *
+     * @see #setCheckpointFile(File)
+     */
+    public void resumeImportByImportOrder(LinkedHashSet<URL> resources) throws ContentImportHandlerException {
+        if (checkpointFile == null) {
+            throw new IllegalStateException("No checkpoint file has been set.");
+        }
+
+        if (resources == null || resources.isEmpty()) {
+            importContentResources(resources);
+            return;
+        }
+
+        List<URL> ordered = new ArrayList<URL>(resources);
+        ImportRun run = new ImportRun(null, null);
+        ImportCheckpoint checkpoint;
+
+        try {
+            checkpoint = ImportCheckpoint.resume(checkpointFile, ordered);
+        } catch (IOException e) {
+            throw new ContentImportHandlerException(String.format(SEVERE_CHECKPOINT_FAILED, checkpointFile), e);
+        }
+
+        int resumeIndex = checkpoint.getResumeIndex();
+
+        if (resumeIndex > 0) {
+            LOGGER.log(Level.INFO, String.format(INFO_RESUMING_IMPORT, resumeIndex, ordered.size(), checkpointFile));
+            logger.info(String.format(INFO_RESUMING_IMPORT, resumeIndex, ordered.size(), checkpointFile));
+        }
+
+        Set<URL> remaining = new LinkedHashSet<URL>(ordered.subList(resumeIndex, ordered.size()));
+
+        if (remaining.isEmpty()) {
+            checkpoint.complete();
+            return;
+        }
+
+        run.checkpoint = checkpoint;
+        run.resourcesCompleted = resumeIndex;
+
+        importContentResources(remaining, run);
     }
 
     public void importContent(Set<URL> resources) throws ContentImportHandlerException {
@@ -76,121 +748,744 @@ public class StandardContentImportHandler implements ContentImportHandler {
     }
 
     protected void importContentResources(Set<URL> resources) throws ContentImportHandlerException {
+        importContentResources(resources, new ImportRun(null, null));
+    }
+
+    private void importContentResources(Set<URL> resources, ImportRun run) throws ContentImportHandlerException {
         if (resources == null) {
         		throw new IllegalArgumentException(WARNING_RESOURCE_SET_WAS_NULL);
         } else if (resources.isEmpty()) {
             LOGGER.log(Level.FINE, WARNING_RESOURCE_SET_WAS_EMPTY);
         } else {
+            final ResourceResolver resolver = new ResourceResolver();
+            final Base64Cache base64Cache = new Base64Cache(base64CacheSize);
+
+            ConversionPipeline pipeline = new ConversionPipeline(resources, new ConversionPipeline.Converter() {
+                public ConvertedResource convert(URL resource) throws ContentImportHandlerException {
+                    return convertResource(resolver, base64Cache, resource);
+                }
+            }, getEffectiveParallelism(), getQueueDepth());
 
-            for (URL resourceURL : resources) {
-                if (isValidResource(resourceURL)) {
+            ImportCheckpoint checkpoint = run.checkpoint;
+            lastImportReport = run.report;
+            run.totalResources = run.resourcesCompleted + resources.size();
+            run.instrumentation = instrumentation;
+            boolean completed = false;
+            long startMillis = System.currentTimeMillis();
 
-                    String path = resourceURL.getPath();
-                    if(path.contains("!")) {
-                        path = path.substring(path.indexOf("!"));
+            if (run.instrumentation != null) {
+                run.instrumentation.runStarted(resources.size());
+            }
+
+            ImportBatch batch = new ImportBatch();
+            ConvertedResource converted = null;
+
+            try {
+                converted = nextConvertedResource(pipeline, run);
+
+                while (converted != null) {
+                    checkCancelled(run);
+
+                    if (dryRun) {
+                        resourceValidated(converted, run);
+                        converted = nextConvertedResource(pipeline, run);
+                        continue;
                     }
-                    String fileName = path.substring(path.indexOf("/"));
 
-                    if (fileName.endsWith(".content")) {
+                    if (!batch.accepts(converted, batchMaxResources, batchMaxSize)) {
+                        importBatch(batch, run);
+                        batch = new ImportBatch();
+                    }
 
-                        InputStream inputStream = null;
-                        try {
+                    batch.add(converted);
+                    converted = nextConvertedResource(pipeline, run);
+                }
 
-                            inputStream = resourceURL.openStream();
+                checkCancelled(run);
 
-                            TextContentParser textContentParser =
-                                new TextContentParser(inputStream, resourceURL, fileName);
-                            TextContentSet textContentSet = textContentParser.parse();
+                if (!batch.isEmpty()) {
+                    importBatch(batch, run);
+                }
 
-                            StringWriter writer = new StringWriter();
-                            TextContentXmlWriter contentXmlWriter = new TextContentXmlWriter(writer);
+                completed = true;
+            } finally {
+                if (converted != null) {
+                    converted.release();
+                }
 
-                            contentXmlWriter.write(textContentSet);
-                            contentXmlWriter.close();
+                release(batch);
+                pipeline.close();
+                resolver.close();
 
-                            String xml = writer.getBuffer().toString();
+                run.report.setBytesProcessed(run.bytesProcessed);
+                run.report.setElapsedMillis(System.currentTimeMillis() - startMillis);
 
-                            documentImporter.importXML(xml);
-                            LOGGER.log(Level.INFO, String.format(INFO_CONTENT_IMPORT_SUCCEDED, fileName));
-                            
-                            logger.info(String.format(INFO_CONTENT_IMPORT_SUCCEDED, fileName));
+                if (!dryRun) {
+                    saveImportLedger();
+                }
 
-                        } catch (Exception e) {
-                        	    throw new ContentImportHandlerException(SEVERE_CONTENT_IMPORT_FAILED, e);
-                        }
-                        finally {
-                            if(inputStream != null)
-                                try {
-                                    inputStream.close();
-                                } catch (IOException e) {
-                                    LOGGER.log(Level.WARNING, "Caught exception while trying to close input stream in content import", e);
-                                }
+                if (run.instrumentation != null) {
+                    run.instrumentation.runCompleted();
+                }
+
+                if (checkpoint != null) {
+                    if (completed) {
+                        checkpoint.complete();
+                    } else {
+                        checkpoint.close();
+                    }
+                }
+            }
+
+            if (dryRun) {
+                dryRunCompleted(run.report);
+            }
+
+            if (run.report.hasFailures()) {
+                throw new PoisonResourcesException(run.report);
+            }
+        }
+    }
+
+    private ConvertedResource nextConvertedResource(ConversionPipeline pipeline, ImportRun run)
+        throws ContentImportHandlerException {
+        while (true) {
+            try {
+                return pipeline.next();
+            } catch (ResourceConversionException e) {
+                if (!isolateFailures && !dryRun) {
+                    resourceMeasured(e.getMetrics(), run);
+                    throw e;
+                }
+
+                resourceFailed(e.getResource(), e, e.getMetrics(), run);
+            }
+        }
+    }
+
+    /**
+     * Reads the resource and converts it to content XML. Called from the
+     * worker threads when importing with a parallelism above one.
+     *
+     * @return the converted resource or null if it is not a valid resource.
+     */
+    protected ConvertedResource convertResource(ResourceResolver resolver, Base64Cache base64Cache, URL resourceURL)
+        throws ContentImportHandlerException {
+        ResourceMetrics metrics = new ResourceMetrics(resourceURL);
+        long mark = System.nanoTime();
+
+        ResourceResolver.Resource resource = openResource(resolver, resourceURL);
+
+        if (resource == null) {
+            return null;
+        }
+
+        String fileName = getFileName(resourceURL);
+        ImportStage stage = ImportStage.READ;
+
+        try {
+            byte[] content = null;
+            ResourceFingerprint fingerprint = null;
+            ResourceFingerprint previous = null;
+            boolean textContent = fileName.endsWith(".content");
+
+            if (importLedger != null && !dryRun) {
+                previous = importLedger.get(resourceURL.toString());
+                fingerprint = new ResourceFingerprint(resource.getLength(), resource.getLastModified(), resource.getChecksum());
+
+                if (!forceFullImport && fingerprint.isQuickMatch(previous)) {
+                    resourceUnchanged(fileName);
+                    return null;
+                }
+
+                // a .content file is checksummed while it is parsed rather than read into memory first.
+                if (!fingerprint.hasChecksum() && !textContent) {
+                    content = resource.readBytes();
+                    fingerprint = fingerprint.withContent(content);
+                }
+
+                if (!forceFullImport && fingerprint.isContentMatch(previous)) {
+                    // only the modification time changed, remember it for the quick check next time.
+                    importLedger.record(resourceURL.toString(), fingerprint);
+                    resourceUnchanged(fileName);
+                    return null;
+                }
+            }
+
+            String xml = null;
+            EncodedXml encodedXml = null;
+            SplitOutput splitOutput = null;
+            boolean fragment;
+
+            if (textContent) {
+                // the file is read as it is parsed, so reading is measured as part of parsing.
+                mark = lap(metrics, stage, mark);
+                stage = ImportStage.PARSE;
+
+                MeasuredInputStream inputStream = new MeasuredInputStream(resource.getInputStream());
+                TextContentSet textContentSet;
+
+                if (contentSpillThreshold >= 0 && resource.getLength() > contentSpillThreshold) {
+                    textContentSet = new SpilledTextContentSet(inputStream, resourceURL, fileName, null);
+                } else {
+                    textContentSet = new TextContentParser(inputStream, resourceURL, fileName).parse();
+                }
+
+                StringWriter writer = null;
+                SplitResource split = null;
+
+                try {
+                    inputStream.skipToEnd();
+                    metrics.setBytesRead(inputStream.getCount());
+
+                    if (fingerprint != null && !fingerprint.hasChecksum()) {
+                        fingerprint = fingerprint.withContent(inputStream.getCount(), inputStream.getChecksum().getValue());
+
+                        if (!forceFullImport && fingerprint.isContentMatch(previous)) {
+                            importLedger.record(resourceURL.toString(), fingerprint);
+                            resourceUnchanged(fileName);
+                            return null;
                         }
-                    } else if (fileName.endsWith(".xml")) {
-                        try {
-                            StringBuffer stringBuffer = getFileContents(resourceURL);
-                            documentImporter.importXML(stringBuffer.toString());
-
-                            LOGGER.log(Level.INFO, String.format(INFO_CONTENT_IMPORT_SUCCEDED, fileName));
-                            
-                            
-                            logger.info(String.format(INFO_CONTENT_IMPORT_SUCCEDED, fileName));
-
-						} catch (Exception e) {
-							throw new ContentImportHandlerException(SEVERE_CONTENT_IMPORT_FAILED, e);
-						}
+                    }
+
+                    metrics.setContentCount(textContentSet.size());
+                    mark = lap(metrics, stage, mark);
+                    stage = ImportStage.WRITE;
+
+                    boolean splitDocuments = isSplit(textContentSet, resource);
+
+                    if (splitDocuments && !dryRun) {
+                        // the documents are written as they are imported, see importDocuments.
+                        split = new SplitResource(resourceURL, fileName, textContentSet, base64Cache, fingerprint,
+                                                  metrics);
+
+                        return split;
+                    }
+
+                    TextContentXmlWriter contentXmlWriter;
+
+                    if (splitDocuments) {
+                        splitOutput = new SplitOutput(resourceURL, fileName);
+                        contentXmlWriter = new TextContentXmlWriter(splitOutput, contentDocumentMaxObjects,
+                                                                    contentDocumentMaxSize);
+                    } else if (importSink.isStreaming()) {
+                        encodedXml = new EncodedXml();
+                        contentXmlWriter = new TextContentXmlWriter(encodedXml, !isBatching());
+                    } else {
+                        writer = new StringWriter();
+                        contentXmlWriter = new TextContentXmlWriter(writer, !isBatching());
+                    }
+
+                    contentXmlWriter.setBase64Cache(base64Cache);
+                    contentXmlWriter.write(textContentSet);
+                    contentXmlWriter.close();
+                } finally {
+                    if (split == null && textContentSet instanceof SpilledTextContentSet) {
+                        ((SpilledTextContentSet) textContentSet).close();
                     }
                 }
+
+                if (writer != null) {
+                    xml = writer.toString();
+                }
+
+                fragment = splitOutput == null && isBatching();
+                lap(metrics, stage, mark);
+            } else {
+                xml = content != null ? ResourceLoader.decodeXml(ByteBuffer.wrap(content)) : resource.readXml();
+                fragment = false;
+
+                metrics.setBytesRead(content != null ? content.length : resource.getLength());
+                mark = lap(metrics, stage, mark);
+
+                if (dryRun) {
+                    stage = ImportStage.PARSE;
+                    checkWellFormed(xml);
+                    lap(metrics, stage, mark);
+                } else if (isBatching()) {
+                    stage = ImportStage.PARSE;
+
+                    String batchBody = ImportBatch.getBatchBody(xml);
+
+                    if (batchBody != null) {
+                        xml = batchBody;
+                        fragment = true;
+                    }
+
+                    lap(metrics, stage, mark);
+                }
+            }
+
+            if (splitOutput != null) {
+                metrics.setXmlSize(splitOutput.getXmlLength());
+
+                return new SplitResource(resourceURL, fileName, null, null, fingerprint, metrics);
+            }
+
+            if (encodedXml != null) {
+                metrics.setXmlSize(encodedXml.size());
+
+                return new ConvertedResource(resourceURL, fileName, encodedXml.getBuffer(), encodedXml.size(),
+                                             fragment, fingerprint, metrics);
             }
+
+            metrics.setXmlSize(xml.length());
+
+            return new ConvertedResource(resourceURL, fileName, xml, fragment, fingerprint, metrics);
+        } catch (Exception e) {
+            lap(metrics, stage, mark);
+            metrics.setFailureStage(stage);
+
+            throw new ResourceConversionException(resourceURL, e, metrics);
+        } finally {
+            resource.close();
         }
     }
 
-    protected static StringBuffer getFileContents(URL resourceURL) throws IOException {
-        InputStream inputStream = resourceURL.openStream();
-        InputStreamReader reader = null;
+    /**
+     * Whether the .content file is large enough to be split into several
+     * documents.
+     */
+    private boolean isSplit(TextContentSet textContentSet, ResourceResolver.Resource resource) {
+        if (contentDocumentMaxObjects > 0 && textContentSet.size() * 2L > contentDocumentMaxObjects) {
+            return true;
+        }
+
+        return contentDocumentMaxSize > 0 && resource.getLength() > contentDocumentMaxSize;
+    }
+
+    /**
+     * Parses the XML without building a document.
+     *
+     * @throws SAXException if the XML is not well-formed.
+     */
+    private static void checkWellFormed(String xml) throws SAXException, IOException, ParserConfigurationException {
+        SAXParser parser = XmlParserPool.acquireSaxParser();
+
+        try {
+            parser.parse(new InputSource(new StringReader(xml)), new DefaultHandler());
+        } finally {
+            XmlParserPool.release(parser);
+        }
+    }
+
+    /**
+     * Adds the time since the mark to the stage.
+     *
+     * @return the current time, as the mark of the next stage.
+     */
+    private static long lap(ResourceMetrics metrics, ImportStage stage, long mark) {
+        long now = System.nanoTime();
+        metrics.addNanos(stage, now - mark);
+
+        return now;
+    }
+
+    /**
+     * Opens a resource of a supported type, logging a warning if it is not
+     * supported or can not be found.
+     *
+     * @return the resource or null if it is not a valid resource.
+     */
+    protected ResourceResolver.Resource openResource(ResourceResolver resolver, URL resourceURL) {
+        if(resourceURL == null) {
+            LOGGER.log(Level.WARNING, String.format(WARNING_RESOURCE_FILE_NOT_FOUND, "null"));
+            return null;
+        }
+
+        ResourceResolver.Resource resource;
+
+        try {
+            resource = resolver.open(resourceURL);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format(WARNING_RESOURCE_FILE_NOT_FOUND, resourceURL.toString()));
+            return null;
+        }
+
+        // as before, a missing resource is reported as not found whatever its type.
+        if (!isSupportedType(resourceURL)) {
+            resource.close();
+
+            LOGGER.log(Level.WARNING, String.format(WARNING_RESOURCE_TYPE_NOT_SUPPORTED, resourceURL.toString()));
+
+            logger.error(String.format(WARNING_RESOURCE_TYPE_NOT_SUPPORTED, resourceURL.toString()));
+            return null;
+        }
+
+        return resource;
+    }
+
+    /**
+     * Passes a batch of converted resources to the import sink in a single
+     * call, as a stream if the sink is streaming. Always called from the
+     * importing thread, in the order of the imported resources.
+     */
+    protected void importBatch(ImportBatch batch) throws Exception {
+        if (!importSink.isStreaming()) {
+            importSink.importXml(batch.getXml());
+            return;
+        }
+
+        InputStream xml = batch.openXml();
+
         try {
-            StringBuffer stringBuffer = new StringBuffer();
-            reader = new InputStreamReader(inputStream);
-            int c = reader.read();
-            while (c != -1) {
-                stringBuffer.append((char) c);
-                c = reader.read();
+            importSink.importXml(xml);
+        } finally {
+            xml.close();
+        }
+    }
+
+    /**
+     * Imports the batch or, if it is a resource split into several
+     * documents, writes its documents in order, importing each as soon as it
+     * is complete.
+     */
+    private void importDocuments(ImportBatch batch) throws Exception {
+        if (batch.size() != 1 || !batch.getResources().get(0).isSplit()) {
+            importBatch(batch);
+            return;
+        }
+
+        SplitResource resource = (SplitResource) batch.getResources().get(0);
+        SplitOutput output = new SplitOutput(resource.getUrl(), resource.getFileName());
+        long start = System.nanoTime();
+
+        try {
+            TextContentXmlWriter contentXmlWriter = new TextContentXmlWriter(output, contentDocumentMaxObjects,
+                                                                             contentDocumentMaxSize);
+            contentXmlWriter.setBase64Cache(resource.base64Cache);
+            contentXmlWriter.write(resource.textContentSet);
+            contentXmlWriter.close();
+        } catch (DocumentImportException e) {
+            throw e.getCause();
+        } finally {
+            ResourceMetrics metrics = resource.getMetrics();
+
+            metrics.addNanos(ImportStage.WRITE, System.nanoTime() - start - output.getImportNanos());
+            metrics.addNanos(ImportStage.IMPORT, output.getImportNanos());
+            metrics.setXmlSize(output.getXmlLength());
+        }
+    }
+
+    /**
+     * Whether a failed import is worth retrying as is. By default any failure
+     * caused by an I/O error, such as a lost connection or a timeout, is
+     * considered transient.
+     */
+    protected boolean isTransientFailure(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
             }
-            return stringBuffer;
         }
-        finally {
-            if(reader != null)
-                reader.close();
+
+        return false;
+    }
+
+    private void importBatch(ImportBatch batch, ImportRun run) throws ContentImportHandlerException {
+        try {
+            if (isolateFailures) {
+                importIsolatingFailures(batch, run);
+            } else {
+                importFailingFast(batch, run);
+            }
+        } finally {
+            release(batch);
         }
     }
 
-    protected boolean isValidResource(URL resourceURL) {
+    private void importFailingFast(ImportBatch batch, ImportRun run) throws ContentImportHandlerException {
+        long start = System.nanoTime();
 
         try {
-            if(resourceURL == null) {
-                LOGGER.log(Level.WARNING, String.format(WARNING_RESOURCE_FILE_NOT_FOUND, "null"));
-                return false;
+            importDocuments(batch);
+        } catch (Exception e) {
+            importMeasured(batch, System.nanoTime() - start);
+
+            for (ConvertedResource converted : batch.getResources()) {
+                if (converted.getMetrics() != null) {
+                    converted.getMetrics().setFailureStage(ImportStage.IMPORT);
+                    resourceMeasured(converted.getMetrics(), run);
+                }
             }
-            URLConnection urlConnection = resourceURL.openConnection();
-            urlConnection.setUseCaches(false);
-            urlConnection.setDoInput(false);
-            urlConnection.setDoOutput(false);
-            urlConnection.connect();
 
+            if (batch.size() > 1) {
+                throw new ContentImportHandlerException(String.format(SEVERE_BATCH_IMPORT_FAILED, batch), e);
+            }
 
-            if (!resourceURL.toString().endsWith(".content") && !resourceURL.toString().endsWith(".xml")) {
-                LOGGER.log(Level.WARNING, String.format(WARNING_RESOURCE_TYPE_NOT_SUPPORTED, resourceURL.toString()));
-                
-                logger.error(String.format(WARNING_RESOURCE_TYPE_NOT_SUPPORTED, resourceURL.toString()));
-                return false;
+            throw new ContentImportHandlerException(SEVERE_CONTENT_IMPORT_FAILED, e);
+        }
 
-            } else {
-                return true;
+        importMeasured(batch, System.nanoTime() - start);
+        batchImported(batch, run);
+    }
+
+    private void importIsolatingFailures(ImportBatch batch, ImportRun run) throws ContentImportHandlerException {
+        checkCancelled(run);
+
+        Exception failure = importRetryingTransientFailures(batch);
+
+        if (failure == null) {
+            batchImported(batch, run);
+        } else if (batch.size() > 1) {
+            LOGGER.log(Level.WARNING, String.format(WARNING_BATCH_FAILURE_BISECT, batch, failure));
+            logger.warning(String.format(WARNING_BATCH_FAILURE_BISECT, batch, failure));
+
+            List<ConvertedResource> resources = batch.getResources();
+            int half = resources.size() / 2;
+
+            importIsolatingFailures(new ImportBatch(resources.subList(0, half)), run);
+            importIsolatingFailures(new ImportBatch(resources.subList(half, resources.size())), run);
+        } else {
+            ConvertedResource converted = batch.getResources().get(0);
+
+            if (converted.getMetrics() != null) {
+                converted.getMetrics().setFailureStage(ImportStage.IMPORT);
+            }
+
+            resourceFailed(converted.getUrl(), failure, converted.getMetrics(), run);
+        }
+    }
+
+    /**
+     * @return null if the batch was imported, otherwise the last failure.
+     */
+    private Exception importRetryingTransientFailures(ImportBatch batch) throws ContentImportHandlerException {
+        long backoff = retryBackoffMillis;
+
+        for (int attempt = 0; ; attempt++) {
+            long start = System.nanoTime();
+
+            try {
+                importDocuments(batch);
+                importMeasured(batch, System.nanoTime() - start);
+
+                return null;
+            } catch (Exception e) {
+                importMeasured(batch, System.nanoTime() - start);
+
+                if (attempt >= transientRetries || !isTransientFailure(e)) {
+                    return e;
+                }
+
+                LOGGER.log(Level.WARNING, String.format(WARNING_TRANSIENT_FAILURE_RETRY, batch, backoff, e));
+                logger.warning(String.format(WARNING_TRANSIENT_FAILURE_RETRY, batch, backoff, e));
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new ContentImportHandlerException("Interrupted while waiting to retry import of " + batch, e);
+                }
+
+                backoff *= 2;
+            }
+        }
+    }
+
+    private void batchImported(ImportBatch batch, ImportRun run) throws ContentImportHandlerException {
+        for (ConvertedResource converted : batch.getResources()) {
+            LOGGER.log(Level.INFO, String.format(INFO_CONTENT_IMPORT_SUCCEDED, converted.getFileName()));
+
+            logger.info(String.format(INFO_CONTENT_IMPORT_SUCCEDED, converted.getFileName()));
+
+            run.report.resourceImported();
+            resourceCompleted(converted.getUrl(), converted.getSize(), run);
+
+            if (converted.getMetrics() != null) {
+                converted.getMetrics().setBatchSize(batch.size());
+                resourceMeasured(converted.getMetrics(), run);
+            }
+
+            if (importLedger != null && converted.getFingerprint() != null) {
+                importLedger.record(converted.getUrl().toString(), converted.getFingerprint());
+            }
+        }
+
+        if (run.checkpoint != null) {
+            URL last = batch.getResources().get(batch.size() - 1).getUrl();
+
+            try {
+                run.checkpoint.imported(last);
+            } catch (IOException e) {
+                throw new ContentImportHandlerException(String.format(SEVERE_CHECKPOINT_FAILED, run.checkpoint.getFile()), e);
             }
+        }
+    }
+
+    private void resourceValidated(ConvertedResource converted, ImportRun run) {
+        LOGGER.log(Level.FINE, String.format(INFO_CONTENT_VALIDATED, converted.getFileName()));
+
+        logger.debug(String.format(INFO_CONTENT_VALIDATED, converted.getFileName()));
+
+        run.report.resourceImported();
+        resourceCompleted(converted.getUrl(), converted.getSize(), run);
+        resourceMeasured(converted.getMetrics(), run);
+    }
+
+    private void dryRunCompleted(ImportReport report) {
+        double seconds = Math.max(report.getElapsedMillis(), 1) / 1000.0;
+        String message = String.format(INFO_DRY_RUN_COMPLETED, report.getImportedCount(), report.getBytesProcessed(),
+            report.getElapsedMillis(), report.getImportedCount() / seconds,
+            report.getBytesProcessed() / seconds / (1024 * 1024), report.getFailures().size());
 
+        LOGGER.log(Level.INFO, message);
+
+        logger.info(message);
+    }
+
+    private void resourceUnchanged(String fileName) {
+        LOGGER.log(Level.FINE, String.format(INFO_CONTENT_IMPORT_UNCHANGED, fileName));
+
+        logger.debug(String.format(INFO_CONTENT_IMPORT_UNCHANGED, fileName));
+    }
+
+    private void saveImportLedger() {
+        if (importLedger == null) {
+            return;
+        }
+
+        try {
+            importLedger.save();
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, String.format(WARNING_RESOURCE_FILE_NOT_FOUND, resourceURL.toString()));
-            return false;
+            LOGGER.log(Level.WARNING, String.format(WARNING_LEDGER_NOT_SAVED, importLedger, e), e);
+
+            logger.warning(String.format(WARNING_LEDGER_NOT_SAVED, importLedger, e));
         }
     }
+
+    private void resourceFailed(URL resource, Exception e, ResourceMetrics metrics, ImportRun run) {
+        LOGGER.log(Level.SEVERE, String.format(SEVERE_RESOURCE_ISOLATED, resource, e), e);
+        logger.error(String.format(SEVERE_RESOURCE_ISOLATED, resource, e));
+
+        run.report.resourceFailed(resource, e);
+        resourceCompleted(resource, -1, run);
+        resourceMeasured(metrics, run);
+    }
+
+    private static void release(ImportBatch batch) {
+        for (ConvertedResource converted : batch.getResources()) {
+            converted.release();
+        }
+    }
+
+    private void resourceMeasured(ResourceMetrics metrics, ImportRun run) {
+        if (run.instrumentation != null && metrics != null) {
+            run.instrumentation.resourceCompleted(metrics);
+        }
+    }
+
+    /**
+     * Shares the time of a DocumentImporter call between the resources of the
+     * batch. A split resource is measured by importDocuments instead, as the
+     * time includes writing its documents.
+     */
+    private static void importMeasured(ImportBatch batch, long nanos) {
+        long share = nanos / batch.size();
+
+        for (ConvertedResource converted : batch.getResources()) {
+            if (converted.getMetrics() != null && !converted.isSplit()) {
+                converted.getMetrics().addNanos(ImportStage.IMPORT, share);
+            }
+        }
+    }
+
+    private void resourceCompleted(URL resource, long size, ImportRun run) {
+        run.resourcesCompleted++;
+
+        if (size > 0) {
+            run.bytesProcessed += size;
+        }
+
+        if (run.listener != null) {
+            try {
+                run.listener.progress(
+                    new ImportProgress(run.resourcesCompleted, run.totalResources, run.bytesProcessed, resource));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Import progress listener failed", e);
+            }
+        }
+    }
+
+    private void checkCancelled(ImportRun run) throws ImportCancelledException {
+        if (run.isCancelled()) {
+            throw new ImportCancelledException(run.report);
+        }
+    }
+
+    private CompletableFuture<ImportReport> startImport(final ImportTask task, ImportProgressListener listener) {
+        final CompletableFuture<ImportReport> future = new CompletableFuture<ImportReport>();
+        final ImportRun run = new ImportRun(listener, future);
+
+        Runnable runnable = new Runnable() {
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
+
+                try {
+                    task.run(run);
+                    future.complete(run.report);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        };
+
+        if (asyncExecutor != null) {
+            asyncExecutor.execute(runnable);
+        } else {
+            Thread thread = new Thread(runnable, "content-import-async-" + asyncRunCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        return future;
+    }
+
+    private boolean isBatching() {
+        return batchMaxResources > 1;
+    }
+
+    private int getEffectiveParallelism() {
+        if (dryRun) {
+            return Math.max(parallelism, Runtime.getRuntime().availableProcessors());
+        }
+
+        return parallelism;
+    }
+
+    private static String getFileName(URL resourceURL) {
+        String path = resourceURL.getPath();
+        if(path.contains("!")) {
+            path = path.substring(path.indexOf("!"));
+        }
+        return path.substring(path.indexOf("/"));
+    }
+
+    protected static StringBuffer getFileContents(URL resourceURL) throws IOException {
+        return new StringBuffer(ResourceLoader.readXml(resourceURL));
+    }
+
+    protected boolean isValidResource(URL resourceURL) {
+        ResourceResolver resolver = new ResourceResolver();
+
+        try {
+            ResourceResolver.Resource resource = openResource(resolver, resourceURL);
+
+            if (resource == null) {
+                return false;
+            }
+
+            resource.close();
+
+            return true;
+        } finally {
+            resolver.close();
+        }
+    }
+
+    private static boolean isSupportedType(URL resourceURL) {
+        return resourceURL.toString().endsWith(".content") || resourceURL.toString().endsWith(".xml");
+    }
 }
@@ -0,0 +1,130 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The chunked Base64 encoding of attachments written more than once, such as
+ * the files of a template used by many contents or a file attached under
+ * several names, so that each is read and encoded once. An attachment is
+ * cached when it is written for the second time, so attachments written only
+ * once are still streamed without being held in memory.
+ *
+ * Attachments are identified by their URL. The cache holds at most a given
+ * number of encoded bytes, evicting the least recently written attachments
+ * first, and remembers at most a given number of attachments as written,
+ * forgetting the least recently written first.
+ *
+ * A cache can be shared by the writers of an import run, so that the files
+ * of a template are encoded once for all .content files using it. Thread
+ * safe; two threads writing the same attachment at once may both encode it.
+ */
+public class Base64Cache
+{
+    private static final int LINE_LENGTH = 76;
+
+    /**
+     * The default number of attachments remembered as written.
+     */
+    private static final int DEFAULT_WRITTEN_CAPACITY = 16 * 1024;
+
+    private final long capacity;
+
+    private long size;
+
+    private final Map<String, Boolean> written;
+
+    private final Map<String, byte[]> encoded = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    /**
+     * @param capacity the maximum number of encoded bytes held.
+     */
+    public Base64Cache(final long capacity)
+    {
+        this(capacity, DEFAULT_WRITTEN_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of encoded bytes held.
+     * @param writtenCapacity the maximum number of attachments remembered as
+     *        written.
+     */
+    Base64Cache(final long capacity,
+                final int writtenCapacity)
+    {
+        this.capacity = capacity;
+        this.written = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest)
+            {
+                return size() > writtenCapacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached encoding of the file or null.
+     */
+    synchronized byte[] get(final FileAttachment file)
+    {
+        return encoded.get(key(file));
+    }
+
+    /**
+     * Records that the file is written.
+     *
+     * @return true if the file has been written before and its encoding
+     *         should be cached.
+     */
+    synchronized boolean isCacheable(final FileAttachment file)
+    {
+        if (written.put(key(file), Boolean.TRUE) == null) {
+            return false;
+        }
+
+        long length = encodedLength(file.getSize());
+
+        return length >= 0 && length <= capacity;
+    }
+
+    synchronized void put(final FileAttachment file,
+             final byte[] bytes)
+    {
+        if (bytes.length > capacity) {
+            // the file grew since its size was recorded.
+            return;
+        }
+
+        Iterator<byte[]> eldest = encoded.values().iterator();
+
+        while (size + bytes.length > capacity && eldest.hasNext()) {
+            size -= eldest.next().length;
+            eldest.remove();
+        }
+
+        encoded.put(key(file), bytes);
+        size += bytes.length;
+    }
+
+    private static String key(final FileAttachment file)
+    {
+        return file.getUrl().toString();
+    }
+
+    /**
+     * @return the length of the chunked Base64 encoding of a file of the
+     *         size, or -1 if the size is unknown.
+     */
+    static long encodedLength(final long size)
+    {
+        if (size < 0) {
+            return -1;
+        }
+
+        long characters = (size + 2) / 3 * 4;
+        long lines = (characters + LINE_LENGTH - 1) / LINE_LENGTH;
+
+        return characters + 2 * lines;
+    }
+}
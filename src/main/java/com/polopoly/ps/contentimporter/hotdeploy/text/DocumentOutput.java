@@ -0,0 +1,18 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Where a {@link TextContentXmlWriter} that splits its output into several
+ * batch documents writes each document.
+ */
+public interface DocumentOutput
+{
+    /**
+     * @return the writer of the next document, in import order. The writer
+     *         is closed when the document is complete.
+     */
+    Writer nextDocument()
+        throws IOException;
+}
@@ -0,0 +1,181 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+/**
+ * Splits the lines of a .content file into fields, resolving the backslash
+ * escapes. The unescaped fields of the current line are kept in a char buffer
+ * that is reused for every line, with the offsets of the fields in an int
+ * array, so that Strings are only created for the fields that are used. Not
+ * thread safe.
+ */
+final class FieldTokenizer
+{
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int INITIAL_FIELD_COUNT = 8;
+
+    private final char separator;
+
+    private char[] chars = new char[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Field i is chars[offsets[i]] to chars[offsets[i + 1]].
+     */
+    private int[] offsets = new int[INITIAL_FIELD_COUNT + 1];
+
+    private int fieldCount;
+
+    /**
+     * A fixed set of strings that fields can be looked up in without creating
+     * a String of the field.
+     */
+    static final class Table
+    {
+        private static final int FIRST_CHARS = 128;
+
+        private final String[] strings;
+
+        private final int[][] indexesByFirstChar = new int[FIRST_CHARS][];
+
+        Table(final String... strings)
+        {
+            this.strings = strings;
+
+            for (int i = 0; i < strings.length; i++) {
+                char first = strings[i].charAt(0);
+
+                if (first >= FIRST_CHARS) {
+                    throw new IllegalArgumentException("Only ASCII strings are supported, got " + strings[i] + ".");
+                }
+
+                int[] indexes = indexesByFirstChar[first];
+
+                if (indexes == null) {
+                    indexes = new int[] { i };
+                } else {
+                    int[] grown = new int[indexes.length + 1];
+                    System.arraycopy(indexes, 0, grown, 0, indexes.length);
+                    grown[indexes.length] = i;
+                    indexes = grown;
+                }
+
+                indexesByFirstChar[first] = indexes;
+            }
+        }
+
+        int indexOf(final char[] chars,
+                    final int start,
+                    final int length)
+        {
+            if (length == 0 || chars[start] >= FIRST_CHARS) {
+                return -1;
+            }
+
+            int[] indexes = indexesByFirstChar[chars[start]];
+
+            if (indexes == null) {
+                return -1;
+            }
+
+            for (int index : indexes) {
+                if (matches(strings[index], chars, start, length)) {
+                    return index;
+                }
+            }
+
+            return -1;
+        }
+
+        private static boolean matches(final String string,
+                                       final char[] chars,
+                                       final int start,
+                                       final int length)
+        {
+            if (string.length() != length) {
+                return false;
+            }
+
+            for (int i = 1; i < length; i++) {
+                if (string.charAt(i) != chars[start + i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    FieldTokenizer(final char separator)
+    {
+        this.separator = separator;
+    }
+
+    /**
+     * Splits the line at every separator that is not escaped by a backslash.
+     * A backslash followed by <code>n</code> is a newline, while a backslash
+     * followed by any other character is that character.
+     */
+    void tokenize(final String line)
+    {
+        int length = line.length();
+
+        // unescaping never makes a line longer.
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        fieldCount = 0;
+        offsets[0] = 0;
+
+        int position = 0;
+        boolean quote = false;
+
+        for (int i = 0; i < length; i++) {
+            char ch = line.charAt(i);
+
+            if (ch == separator && !quote) {
+                endField(position);
+            } else if (ch == '\\' && !quote) {
+                quote = true;
+            } else if (quote && ch == 'n') {
+                // as before, the escape stays open after a newline.
+                chars[position++] = '\n';
+            } else {
+                chars[position++] = ch;
+                quote = false;
+            }
+        }
+
+        endField(position);
+    }
+
+    int getFieldCount()
+    {
+        return fieldCount;
+    }
+
+    String getField(final int field)
+    {
+        return new String(chars, offsets[field], offsets[field + 1] - offsets[field]);
+    }
+
+    /**
+     * @return the index of the field in the table or -1 if it is not in it.
+     */
+    int lookup(final int field,
+               final Table table)
+    {
+        return table.indexOf(chars, offsets[field], offsets[field + 1] - offsets[field]);
+    }
+
+    private void endField(final int position)
+    {
+        fieldCount++;
+
+        if (fieldCount == offsets.length) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+
+        offsets[fieldCount] = position;
+    }
+}
@@ -0,0 +1,84 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import com.polopoly.ps.contentimporter.hotdeploy.util.ResourceLoader;
+
+/**
+ * A file attached to a text content object. The file is only read when it is
+ * written, through {@link #open()}, rather than being held in memory from
+ * the time the .content file is parsed.
+ */
+final class FileAttachment
+{
+    private final URL url;
+    private final long size;
+
+    private FileAttachment(final URL url,
+                           final long size)
+    {
+        this.url = url;
+        this.size = size;
+    }
+
+    /**
+     * Checks that the file exists and records its size, without reading it.
+     *
+     * @throws FileNotFoundException if the file does not exist.
+     */
+    static FileAttachment resolve(final URL url)
+        throws IOException
+    {
+        File file = ResourceLoader.toFile(url);
+
+        if (file != null) {
+            if (!file.isFile()) {
+                throw new FileNotFoundException(url.toString());
+            }
+
+            return new FileAttachment(url, file.length());
+        }
+
+        URLConnection connection = url.openConnection();
+        connection.getInputStream().close();
+
+        return new FileAttachment(url, connection.getContentLengthLong());
+    }
+
+    URL getUrl()
+    {
+        return url;
+    }
+
+    /**
+     * @return the size of the file in bytes or -1 if unknown.
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+    InputStream open()
+        throws IOException
+    {
+        File file = ResourceLoader.toFile(url);
+
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+
+        return url.openStream();
+    }
+
+    @Override
+    public String toString()
+    {
+        return url.toString();
+    }
+}
@@ -0,0 +1,330 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A set of the objects of a .content file that keeps only a stub of every
+ * object in memory, holding what is needed to write the bootstrap
+ * definitions and cross references of the set (see
+ * {@link TextContentSet#getStubs()}). While parsing, the lines of the file
+ * are copied to a temporary file, from which an object is parsed again
+ * whenever it is needed, so the memory needed to write a large file as XML
+ * does not grow with the size of its objects.
+ *
+ * Objects are iterated in the same order as in a {@link TextContentSet} and
+ * a later object with the same id replaces an earlier one, so the set writes
+ * the same XML. The set must be closed to delete the temporary file.
+ */
+public class SpilledTextContentSet
+    extends TextContentSet
+    implements Closeable
+{
+    private static final Logger LOGGER = Logger.getLogger(SpilledTextContentSet.class.getName());
+
+    private static final String ENCODING = "UTF-8";
+
+    private final URL contentUrl;
+
+    private final String fileName;
+
+    private final File file;
+
+    private final Map<String, TextContent> stubs = new TreeMap<String, TextContent>();
+
+    /**
+     * The position and length in the temporary file of the lines of every
+     * object.
+     */
+    private final Map<String, long[]> ranges = new HashMap<String, long[]>();
+
+    private RandomAccessFile spill;
+
+    /**
+     * Parses the file, copying it to a temporary file in the directory.
+     *
+     * @param directory the directory of the temporary file or null for the
+     *        default temporary directory.
+     */
+    public SpilledTextContentSet(final InputStream inputStream,
+                                 final URL contentUrl,
+                                 final String fileName,
+                                 final File directory)
+        throws IOException, ParseException
+    {
+        this.contentUrl = contentUrl;
+
+        TextContentParser parser = new TextContentParser(inputStream, contentUrl, fileName);
+
+        // parsed again with the name the parser derived, without path or extension.
+        this.fileName = parser.getFileName() + '.' + TextContentParser.TEXT_CONTENT_FILE_EXTENSION;
+
+        file = File.createTempFile("content-", ".spill", directory);
+
+        boolean spilled = false;
+
+        try {
+            spill(parser);
+            spill = new RandomAccessFile(file, "r");
+            spilled = true;
+        } finally {
+            if (!spilled) {
+                delete();
+            }
+        }
+    }
+
+    /**
+     * Tracks where the lines of the objects are written.
+     */
+    private static class SpillWriter
+        implements TextContentParser.LineHandler
+    {
+        private final OutputStream outputStream;
+
+        private long position;
+
+        private long objectStart = -1;
+
+        private long completedStart;
+
+        private long completedEnd;
+
+        private boolean completed;
+
+        SpillWriter(final OutputStream outputStream)
+        {
+            this.outputStream = outputStream;
+        }
+
+        public void line(final String line,
+                         final boolean startsObject)
+            throws IOException
+        {
+            if (startsObject) {
+                if (objectStart != -1) {
+                    completedStart = objectStart;
+                    completedEnd = position;
+                    completed = true;
+                }
+
+                objectStart = position;
+            }
+
+            byte[] bytes = line.getBytes(ENCODING);
+
+            outputStream.write(bytes);
+            outputStream.write('\n');
+            position += bytes.length + 1;
+        }
+
+        /**
+         * @return the position and length of the object the parser just
+         *         returned.
+         */
+        long[] range()
+        {
+            long[] range;
+
+            if (completed) {
+                // the parser returned the object as the next one started.
+                range = new long[] {completedStart, completedEnd - completedStart};
+            } else {
+                range = new long[] {objectStart, position - objectStart};
+            }
+
+            completed = false;
+
+            return range;
+        }
+    }
+
+    private void spill(final TextContentParser parser)
+        throws IOException, ParseException
+    {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+
+        try {
+            SpillWriter spillWriter = new SpillWriter(outputStream);
+            parser.setLineHandler(spillWriter);
+
+            TextContent content;
+
+            while ((content = parser.next()) != null) {
+                stubs.put(content.getId(), stub(content));
+                ranges.put(content.getId(), spillWriter.range());
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static TextContent stub(final TextContent content)
+    {
+        TextContent stub = new TextContent();
+
+        stub.setId(content.getId());
+        stub.setMajor(content.getMajor());
+        stub.setInputTemplate(content.getInputTemplate());
+        stub.setTemplateId(content.getTemplateId());
+
+        for (Publishing publishing : content.getPublishings()) {
+            stub.addPublishing(publishing);
+        }
+
+        for (Map.Entry<String, List<ExternalIdReference>> list : content.getLists().entrySet()) {
+            for (ExternalIdReference ref : list.getValue()) {
+                if (ref.getMetadataExternalId() != null) {
+                    stub.getList(list.getKey()).add(ref);
+                }
+            }
+        }
+
+        return stub;
+    }
+
+    @Override
+    Iterable<TextContent> getStubs()
+    {
+        return stubs.values();
+    }
+
+    @Override
+    TextContent getStub(final String id)
+    {
+        return stubs.get(id);
+    }
+
+    /**
+     * Parses the object of the stub again from the temporary file.
+     */
+    @Override
+    synchronized TextContent load(final TextContent stub)
+        throws IOException
+    {
+        if (spill == null) {
+            throw new IllegalStateException("The content of " + fileName + " has been closed.");
+        }
+
+        long[] range = ranges.get(stub.getId());
+        byte[] lines = new byte[(int) range[1]];
+
+        spill.seek(range[0]);
+        spill.readFully(lines);
+
+        try {
+            return new TextContentParser(new ByteArrayInputStream(lines), contentUrl, fileName).next();
+        } catch (ParseException e) {
+            throw new IOException("Could not parse " + stub.getId() + " again from " + file + ".", e);
+        }
+    }
+
+    /**
+     * @return the object with the id, parsed again from the temporary file,
+     *         or null if there is none.
+     */
+    @Override
+    public TextContent get(final String id)
+    {
+        TextContent stub = stubs.get(id);
+
+        if (stub == null) {
+            return null;
+        }
+
+        return loadUnchecked(stub);
+    }
+
+    @Override
+    public void add(final TextContent currentContent)
+    {
+        throw new UnsupportedOperationException("Objects can not be added to spilled content.");
+    }
+
+    @Override
+    public int size()
+    {
+        return stubs.size();
+    }
+
+    /**
+     * Iterates the objects, parsing each one again from the temporary file.
+     */
+    @Override
+    public Iterator<TextContent> iterator()
+    {
+        final Iterator<TextContent> stubIterator = stubs.values().iterator();
+
+        return new Iterator<TextContent>() {
+            public boolean hasNext()
+            {
+                return stubIterator.hasNext();
+            }
+
+            public TextContent next()
+            {
+                return loadUnchecked(stubIterator.next());
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private TextContent loadUnchecked(final TextContent stub)
+    {
+        try {
+            return load(stub);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes the temporary file.
+     */
+    public synchronized void close()
+    {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Caught exception while trying to close " + file, e);
+            }
+
+            spill = null;
+        }
+
+        delete();
+    }
+
+    private void delete()
+    {
+        if (file.exists() && !file.delete()) {
+            LOGGER.log(Level.WARNING, "Could not delete temporary file " + file + ".");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "spilled content of " + fileName;
+    }
+}
@@ -0,0 +1,232 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only view of a map of a template overlaid with the corresponding
+ * map of a content using the template, where the entries of the content take
+ * precedence. No values are copied; they are looked up in the two maps.
+ *
+ * The maps used to be merged by copying them into new HashMaps and the XML
+ * is written in the iteration order of the merged maps, so the view iterates
+ * in the same order. The order is taken from a HashMap of the keys, built
+ * the way the merged map was. Most contents only override entries of their
+ * template, and their order is that of the template's keys alone, which is
+ * built once per template map and reused.
+ */
+class TemplateOverlay<K, V>
+    extends AbstractMap<K, V>
+{
+    private final Map<K, V> template;
+
+    private final Map<K, V> content;
+
+    private final Orders orders;
+
+    private Object[] keys;
+
+    private TemplateOverlay(final Map<K, V> template,
+                            final Map<K, V> content,
+                            final Orders orders)
+    {
+        this.template = template;
+        this.content = content;
+        this.orders = orders;
+    }
+
+    /**
+     * The iteration orders of the maps of templates, built when first
+     * needed.
+     */
+    static class Orders
+    {
+        private final Map<Map<?, ?>, Object[]> keys = new IdentityHashMap<Map<?, ?>, Object[]>();
+
+        Object[] get(final Map<?, ?> template)
+        {
+            Object[] order = keys.get(template);
+
+            if (order == null) {
+                order = new HashMap<Object, Object>(template).keySet().toArray();
+                keys.put(template, order);
+            }
+
+            return order;
+        }
+    }
+
+    /**
+     * @return the entries of the template and the content, iterated as a
+     *         HashMap to which first the template's and then the content's
+     *         entries were put using putAll.
+     */
+    static <K, V> Map<K, V> overlay(final Map<K, V> template,
+                                    final Map<K, V> content,
+                                    final Orders orders)
+    {
+        if (template.isEmpty()) {
+            return content;
+        }
+
+        return new TemplateOverlay<K, V>(template, content, orders);
+    }
+
+    /**
+     * @return the groups of the template and the content, iterated as a
+     *         HashMap to which the groups of a HashSet holding first the
+     *         content's and then the template's groups were put one at a
+     *         time. Groups found in both are themselves
+     *         {@link #overlay(Map, Map, Orders) overlaid}.
+     */
+    static <G, K, V> Map<G, Map<K, V>> overlayGroups(final Map<G, Map<K, V>> template,
+                                                     final Map<G, Map<K, V>> content,
+                                                     final Orders orders)
+    {
+        if (template.isEmpty()) {
+            return content;
+        }
+
+        return new TemplateOverlay<G, Map<K, V>>(template, content, null) {
+            @Override
+            Map<K, V> merge(final Map<K, V> templateGroup,
+                            final Map<K, V> contentGroup)
+            {
+                return overlay(templateGroup, contentGroup, orders);
+            }
+        };
+    }
+
+    /**
+     * @return the value of a key found in both the template and the content.
+     */
+    V merge(final V templateValue,
+            final V contentValue)
+    {
+        return contentValue;
+    }
+
+    @Override
+    public V get(final Object key)
+    {
+        V contentValue = content.get(key);
+        V templateValue = template.get(key);
+
+        if (contentValue == null) {
+            return templateValue;
+        }
+
+        if (templateValue == null) {
+            return contentValue;
+        }
+
+        return merge(templateValue, contentValue);
+    }
+
+    @Override
+    public boolean containsKey(final Object key)
+    {
+        return content.containsKey(key) || template.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        if (keys == null) {
+            if (orders == null) {
+                keys = groupOrder(template, content);
+            } else if (template.keySet().containsAll(content.keySet())) {
+                // putting the content's entries would add no keys.
+                keys = orders.get(template);
+            } else {
+                keys = putAllOrder(template, content);
+            }
+        }
+
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public int size()
+            {
+                return keys.length;
+            }
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /**
+     * @return the keys in the order of <code>map = new HashMap();
+     *         map.putAll(template); map.putAll(content);</code>.
+     */
+    private static Object[] putAllOrder(final Map<?, ?> template,
+                                        final Map<?, ?> content)
+    {
+        Map<Object, Object> merged = new HashMap<Object, Object>();
+
+        merged.putAll(template);
+        merged.putAll(content);
+
+        return merged.keySet().toArray();
+    }
+
+    /**
+     * @return the keys in the order of a HashMap to which the keys of a
+     *         HashSet holding first the content's and then the template's
+     *         keys are put one at a time.
+     */
+    private static Object[] groupOrder(final Map<?, ?> template,
+                                       final Map<?, ?> content)
+    {
+        Set<Object> keys = new HashSet<Object>();
+
+        keys.addAll(content.keySet());
+        keys.addAll(template.keySet());
+
+        Map<Object, Object> merged = new HashMap<Object, Object>();
+
+        for (Object key : keys) {
+            merged.put(key, key);
+        }
+
+        return merged.keySet().toArray();
+    }
+
+    private class EntryIterator
+        implements Iterator<Map.Entry<K, V>>
+    {
+        private int next;
+
+        public boolean hasNext()
+        {
+            return next < keys.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next()
+        {
+            if (next >= keys.length) {
+                throw new NoSuchElementException();
+            }
+
+            K key = (K) keys[next++];
+
+            return new AbstractMap.SimpleImmutableEntry<K, V>(key, get(key));
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package com.polopoly.ps.contentimporter.hotdeploy.text;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -21,7 +18,7 @@ public class TextContent
     private Map<String, Map<String, String>> components = new HashMap<String, Map<String, String>>();
     private Map<String, Map<String, ExternalIdReference>> references = new HashMap<String, Map<String, ExternalIdReference>>();
     private Map<String, List<ExternalIdReference>> lists = new HashMap<String, List<ExternalIdReference>>();
-    private Map<String, byte[]> files = new HashMap<String, byte[]>();
+    private Map<String, FileAttachment> files = new HashMap<String, FileAttachment>();
 
     private List<Publishing> publishings = new ArrayList<Publishing>();
     private List<String> workflowActions = new ArrayList<String>();
@@ -153,21 +150,12 @@ public class TextContent
     }
 
     void addFile(final String fileName,
-                 final InputStream fileData)
-        throws IOException
+                 final FileAttachment file)
     {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(10000);
-
-        int ch;
-
-        while ((ch = fileData.read()) != -1) {
-            baos.write(ch);
-        }
-
-        files.put(fileName, baos.toByteArray());
+        files.put(fileName, file);
     }
 
-    Map<String, byte[]> getFiles()
+    Map<String, FileAttachment> getFiles()
     {
         return files;
     }
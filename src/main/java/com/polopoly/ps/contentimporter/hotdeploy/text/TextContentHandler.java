@@ -0,0 +1,14 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.io.IOException;
+
+/**
+ * Receives the objects of a .content file one at a time, as they are parsed.
+ *
+ * @see TextContentParser#parse(TextContentHandler)
+ */
+public interface TextContentHandler
+{
+    void content(TextContent content)
+        throws IOException;
+}
@@ -6,8 +6,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,12 +30,32 @@ public class TextContentParser
     public static final String FILE_PREFIX = "file";
     public static final String WORKFLOW_ACTION_PREFIX = "action";
 
-    private BufferedReader reader;
+    private static final int ID = 0;
+    private static final int INPUT_TEMPLATE = 1;
+    private static final int NAME = 2;
+    private static final int SECURITY_PARENT = 3;
+    private static final int COMPONENT = 4;
+    private static final int REFERENCE = 5;
+    private static final int LIST = 6;
+    private static final int TEMPLATE = 7;
+    private static final int PUBLISH = 8;
+    private static final int MAJOR = 9;
+    private static final int FILE = 10;
+    private static final int WORKFLOW_ACTION = 11;
+
+    /**
+     * The prefixes, in the order of the constants above.
+     */
+    private static final FieldTokenizer.Table PREFIXES = new FieldTokenizer.Table(
+        ID_PREFIX, INPUT_TEMPLATE_PREFIX, NAME_PREFIX, SECURITY_PARENT_PREFIX, COMPONENT_PREFIX, REFERENCE_PREFIX,
+        LIST_PREFIX, TEMPLATE_PREFIX, PUBLISH_PREFIX, MAJOR_PREFIX, FILE_PREFIX, WORKFLOW_ACTION_PREFIX);
 
-    private TextContentSet parsed = new TextContentSet();
+    private BufferedReader reader;
 
     private TextContent currentContent;
 
+    private final FieldTokenizer tokenizer = new FieldTokenizer(SEPARATOR_CHAR);
+
     private String line;
     private int atLine;
 
@@ -45,6 +63,22 @@ public class TextContentParser
 
     private String fileName;
 
+    private LineHandler lineHandler;
+
+    /**
+     * Receives every line of the file as it is parsed.
+     */
+    interface LineHandler
+    {
+        /**
+         * @param startsObject whether the line is the first line of an
+         *        object, i.e. its id line.
+         */
+        void line(String line,
+                  boolean startsObject)
+            throws IOException;
+    }
+
     public TextContentParser(final InputStream inputStream,
                              final URL contentUrl,
                              String fileName)
@@ -74,107 +108,181 @@ public class TextContentParser
         this.fileName = fileName;
     }
 
+    void setLineHandler(final LineHandler lineHandler)
+    {
+        this.lineHandler = lineHandler;
+    }
+
+    /**
+     * Parses the whole file into a set of objects.
+     */
     public TextContentSet parse()
         throws IOException, ParseException
+    {
+        TextContentSet parsed = new TextContentSet();
+        TextContent content;
+
+        while ((content = next()) != null) {
+            parsed.add(content);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Parses the file, passing every object to the handler as soon as it is
+     * complete, i.e. when the next object starts or the file ends.
+     */
+    public void parse(final TextContentHandler handler)
+        throws IOException, ParseException
+    {
+        TextContent content;
+
+        while ((content = next()) != null) {
+            handler.content(content);
+        }
+    }
+
+    /**
+     * Parses the next object of the file. Only the object being parsed is
+     * kept by the parser.
+     *
+     * @return the next object or null at the end of the file.
+     */
+    public TextContent next()
+        throws IOException, ParseException
     {
         while ((line = reader.readLine()) != null) {
             atLine++;
-            parseLine(line);
+
+            TextContent parsing = currentContent;
+            TextContent completed = parseLine(line);
+
+            if (lineHandler != null) {
+                lineHandler.line(line, currentContent != parsing);
+            }
+
+            if (completed != null) {
+                return completed;
+            }
         }
 
-        return parsed;
+        TextContent completed = currentContent;
+        currentContent = null;
+
+        return completed;
     }
 
-    private void parseLine(final String line)
+    /**
+     * @return the previous object if the line starts a new one, otherwise
+     *         null.
+     */
+    private TextContent parseLine(final String line)
         throws ParseException
     {
         if (line.startsWith("#")) {
-            return;
+            return null;
         }
 
-        String[] fields = split(line);
+        tokenizer.tokenize(line);
+
+        int fieldCount = tokenizer.getFieldCount();
 
-        if (fields.length < 2) {
+        if (fieldCount < 2) {
             if (!line.trim().equals("")) {
                 fail("Unrecognized line.");
             }
 
-            return;
+            return null;
         }
 
-        String prefix = fields[0];
+        int prefix = tokenizer.lookup(0, PREFIXES);
+
+        if (prefix == ID) {
+            assertFields(2);
 
-        if (prefix.equals(ID_PREFIX)) {
-            assertFields(2, fields);
+            TextContent completed = currentContent;
             currentContent = new TextContent();
 
-            currentContent.setId(expandId(fields[1]));
-            parsed.add(currentContent);
+            currentContent.setId(expandId(field(1)));
 
-            return;
+            return completed;
         }
 
         if (currentContent == null) {
             fail("Add an \"" + ID_PREFIX + ":\" line first.");
-            return;
+            return null;
         }
 
-        if (prefix.equals(INPUT_TEMPLATE_PREFIX)) {
-            assertFields(2, fields);
-            currentContent.setInputTemplate(new ExternalIdReference(fields[1]));
-        } else if (prefix.equals(NAME_PREFIX)) {
-            assertFields(2, fields);
+        switch (prefix) {
+        case INPUT_TEMPLATE:
+            assertFields(2);
+            currentContent.setInputTemplate(new ExternalIdReference(field(1)));
+            break;
+        case NAME:
+            assertFields(2);
             // TODO: replace with constants.
-            currentContent.setComponent("polopoly.Content", "name", fields[1]);
-        } else if (prefix.equals(SECURITY_PARENT_PREFIX)) {
-            assertFields(2, fields);
-            currentContent.setSecurityParent(new ExternalIdReference(expandId(fields[1])));
-        } else if (prefix.equals(COMPONENT_PREFIX)) {
-            assertFields(4, fields);
-            currentContent.setComponent(fields[1], fields[2], fields[3]);
-        } else if (prefix.equals(REFERENCE_PREFIX)) {
-            assertFields(4, fields);
-            currentContent.setReference(fields[1], fields[2], new ExternalIdReference(expandId(fields[3])));
-        } else if (prefix.equals(FILE_PREFIX)) {
-            assertFields(3, fields);
+            currentContent.setComponent("polopoly.Content", "name", field(1));
+            break;
+        case SECURITY_PARENT:
+            assertFields(2);
+            currentContent.setSecurityParent(new ExternalIdReference(expandId(field(1))));
+            break;
+        case COMPONENT:
+            assertFields(4);
+            currentContent.setComponent(field(1), field(2), field(3));
+            break;
+        case REFERENCE:
+            assertFields(4);
+            currentContent.setReference(field(1), field(2), new ExternalIdReference(expandId(field(3))));
+            break;
+        case FILE:
+            assertFields(3);
+
+            String file = field(2);
 
             try {
-                URL fileUrl = new URL(contentUrl, fields[2]);
-                currentContent.addFile(fields[1], fileUrl.openStream());
+                URL fileUrl = new URL(contentUrl, file);
+                currentContent.addFile(field(1), FileAttachment.resolve(fileUrl));
             } catch (MalformedURLException e) {
-                fail("Could not read file " + fields[2] + " relative to " + contentUrl + ".");
+                fail("Could not read file " + file + " relative to " + contentUrl + ".");
             } catch (IOException e) {
-                fail("Could not read file " + fields[2] + " relative to " + contentUrl + ".");
+                fail("Could not read file " + file + " relative to " + contentUrl + ".");
             }
-        } else if (prefix.equals(LIST_PREFIX)) {
+
+            break;
+        case LIST: {
             String group = null;
             String referredId = null;
             String metadata = null;
 
-            if (fields.length == 2) {
+            if (fieldCount == 2) {
                 group = "polopoly.Department";
-                referredId = fields[1];
-            } else if (fields.length == 3) {
-                group = fields[1];
-                referredId = fields[2];
-            } else if (fields.length == 4) {
-                group = fields[1];
-                referredId = fields[2];
-                metadata = fields[3];
+                referredId = field(1);
+            } else if (fieldCount == 3) {
+                group = field(1);
+                referredId = field(2);
+            } else if (fieldCount == 4) {
+                group = field(1);
+                referredId = field(2);
+                metadata = field(3);
             } else {
-                fail("Expected one, two or three parameters for operation " + fields[0] + " (rather than the provided " + (fields.length - 1) + "). "
+                fail("Expected one, two or three parameters for operation " + field(0) + " (rather than the provided " + (fieldCount - 1) + "). "
                     + "The parameters are: group (optionalunless reference metadata is provided), "
                     + "referred object, reference metadata (optional).");
             }
 
             currentContent.getList(group).add(new ExternalIdReference(expandId(referredId), expandId(metadata)));
-        } else if (prefix.equals(TEMPLATE_PREFIX)) {
-            assertFields(2, fields);
-            currentContent.setTemplateId(expandId(fields[1]));
-        } else if (prefix.equals(MAJOR_PREFIX)) {
-            assertFields(2, fields);
+            break;
+        }
+        case TEMPLATE:
+            assertFields(2);
+            currentContent.setTemplateId(expandId(field(1)));
+            break;
+        case MAJOR:
+            assertFields(2);
 
-            String majorString = fields[1].trim();
+            String majorString = field(1).trim();
 
             try {
                 int intMajor = Integer.parseInt(majorString);
@@ -188,36 +296,48 @@ public class TextContentParser
 
                 currentContent.setMajor(major);
             }
-        } else if (prefix.equals(PUBLISH_PREFIX)) {
+
+            break;
+        case PUBLISH: {
             String group = null;
             String publishIn = null;
             String metadata = null;
 
-            if (fields.length == 2) {
+            if (fieldCount == 2) {
                 group = "polopoly.Department";
-                publishIn = fields[1];
-            } else if (fields.length == 3) {
-                group = fields[1];
-                publishIn = fields[2];
-            } else if (fields.length == 4) {
-                group = fields[1];
-                publishIn = fields[2];
-                metadata = fields[3];
+                publishIn = field(1);
+            } else if (fieldCount == 3) {
+                group = field(1);
+                publishIn = field(2);
+            } else if (fieldCount == 4) {
+                group = field(1);
+                publishIn = field(2);
+                metadata = field(3);
             } else {
-                fail("Expected one, two or three parameters for operation " + fields[0] + " (rather than the provided " + (fields.length - 1)
+                fail("Expected one, two or three parameters for operation " + field(0) + " (rather than the provided " + (fieldCount - 1)
                     + "). The parameters are: " + "group (optional unless reference metadata is provided), object to publish in, "
                     + "reference metadata (optional).");
             }
 
             Publishing publishing = new Publishing(new ExternalIdReference(expandId(publishIn), expandId(metadata)), group);
             currentContent.addPublishing(publishing);
-        } else if (prefix.equals(WORKFLOW_ACTION_PREFIX)) {
-            assertFields(2, fields);
-            currentContent.addWorkflowAction(fields[1]);
-        } else {
+            break;
+        }
+        case WORKFLOW_ACTION:
+            assertFields(2);
+            currentContent.addWorkflowAction(field(1));
+            break;
+        default:
             fail("Line should start with " + ID_PREFIX + ", " + INPUT_TEMPLATE_PREFIX + ", " + NAME_PREFIX + ", " + SECURITY_PARENT_PREFIX + ", "
                 + COMPONENT_PREFIX + ", " + PUBLISH_PREFIX + ", " + MAJOR_PREFIX + ", " + REFERENCE_PREFIX + " or " + LIST_PREFIX + ".");
         }
+
+        return null;
+    }
+
+    private String field(final int field)
+    {
+        return tokenizer.getField(field);
     }
 
     private String expandId(final String externalId)
@@ -237,48 +357,18 @@ public class TextContentParser
         }
     }
 
-    private String[] split(final String line)
-    {
-        List<String> result = new ArrayList<String>();
-
-        boolean quote = false;
-
-        StringBuffer current = new StringBuffer(100);
-
-        for (int i = 0; i < line.length(); i++) {
-            char ch = line.charAt(i);
-
-            if (ch == SEPARATOR_CHAR && !quote) {
-                result.add(current.toString());
-                current.setLength(0);
-            } else if (ch == '\\' && !quote) {
-                quote = true;
-            } else if (quote && ch == 'n') {
-                current.append('\n');
-            } else {
-                current.append(ch);
-                quote = false;
-            }
-        }
-
-        result.add(current.toString());
-
-        return result.toArray(new String[result.size()]);
-    }
-
     private void fail(final String message)
         throws ParseException
     {
         throw new ParseException(message, line, atLine);
     }
 
-    private void assertFields(final int expectedFields,
-                              final String[] fields)
+    private void assertFields(final int expectedFields)
         throws ParseException
     {
-        if (fields.length != expectedFields) {
+        if (tokenizer.getFieldCount() != expectedFields) {
             fail("Expected " + (expectedFields - 1) + " parameters for operation " +
-                 fields[0] + " (rather than the provided " + (fields.length - 1) + ").");
+                 field(0) + " (rather than the provided " + (tokenizer.getFieldCount() - 1) + ").");
         }
     }
 
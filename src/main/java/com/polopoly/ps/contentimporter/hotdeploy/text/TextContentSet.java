@@ -1,5 +1,6 @@
 package com.polopoly.ps.contentimporter.hotdeploy.text;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
@@ -19,8 +20,42 @@ public class TextContentSet
         contents.put(currentContent.getId(), currentContent);
     }
 
+    public int size()
+    {
+        return contents.size();
+    }
+
     public Iterator<TextContent> iterator()
     {
         return contents.values().iterator();
     }
+
+    /**
+     * @return the objects, in the order of the set, with at least their id,
+     *         major, input template, template, publishings and the list
+     *         entries that have reference metadata. This is all that is needed
+     *         to write the bootstrap definitions and cross references of the
+     *         set without holding all of its objects.
+     */
+    Iterable<TextContent> getStubs()
+    {
+        return this;
+    }
+
+    /**
+     * @return the stub of the object with the id or null if there is none.
+     */
+    TextContent getStub(final String id)
+    {
+        return get(id);
+    }
+
+    /**
+     * @return the complete object of the stub.
+     */
+    TextContent load(final TextContent stub)
+        throws IOException
+    {
+        return stub;
+    }
 }
@@ -1,87 +1,259 @@
 package com.polopoly.ps.contentimporter.hotdeploy.text;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.commons.codec.binary.Base64;
 
 import com.polopoly.ps.contentimporter.hotdeploy.client.Major;
+import com.polopoly.ps.contentimporter.hotdeploy.util.Utf8Writer;
 
 public class TextContentXmlWriter
 {
-    private static final String BATCH_START =         "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                                                      "<batch xmlns=\"http://www.polopoly.com/polopoly/cm/xmlio\">\n";
-    private static final String CONTENT_START =       "  <content>\n";
-    private static final String CONTENT_ID_START =    "    <metadata>\n";
-    private static final String CONTENT_ID =          "      <contentid>\n" +
-                                                      "        <major>%s</major>\n" +
-                                                      "        <externalid>%s</externalid>\n" +
-                                                      "      </contentid>\n";
-    private static final String CONTENT_ID_ALT =      "      <contentid>\n" +
-                                                      "        <externalid>%s</externalid>\n" +
-                                                      "      </contentid>\n";
-    private static final String CONTENT_ID_SECURITY = "      <security-parent>\n" +
-                                                      "        <externalid>%s</externalid>\n" +
-                                                      "      </security-parent>\n";
-    private static final String CONTENT_ID_INPUT =    "      <input-template>\n" +
-                                                      "        <externalid>%s</externalid>\n" +
-                                                      "      </input-template>\n";
-    private static final String WF_ACTIONS_START =    "      <workflowactions>\n";
-    private static final String WF_ACTIONS_ACTION =   "        <action>%s</action>\n";
-    private static final String WF_ACTIONS_END =      "      </workflowactions>\n";
-    private static final String CONTENT_ID_END =      "    </metadata>\n";
-    private static final String LIST_START =          "    <contentlist mode=\"%s\" group=\"%s\">\n";
-    private static final String LIST_ENTRY =          "      <entry mode=\"modify\" withMetadata=\"false\">\n" +
-                                                      "        <metadata>\n" +
-                                                      "          <referredContent>\n" +
-                                                      "            <contentid>\n" +
-                                                      "              <externalid>%s</externalid>\n" +
-                                                      "            </contentid>\n" +
-                                                      "          </referredContent>\n" +
-                                                      "        </metadata>\n" +
-                                                      "      </entry>\n";
-    private static final String LIST_REF_ENTRY =      "      <entry withMetadata=\"true\">\n" +
-                                                      "        <metadata>\n" +
-                                                      "          <referredContent>\n" +
-                                                      "            <contentid>\n" +
-                                                      "              <externalid>%s</externalid>\n" +
-                                                      "            </contentid>\n" +
-                                                      "          </referredContent>\n" +
-                                                      "          <contentid>\n" +
-                                                      "            <externalid>%s</externalid>\n" +
-                                                      "          </contentid>\n" +
-                                                      "        </metadata>\n" +
-                                                      "      </entry>\n";
-    private static final String LIST_END =            "    </contentlist>\n";
-    private static final String ExternalIdReference = "    <contentref group=\"%s\" name=\"%s\">\n" +
-                                                      "      <contentid>\n" +
-                                                      "        <externalid>%s</externalid>\n" +
-                                                      "      </contentid>\n" +
-                                                      "    </contentref>\n";
-    private static final String COMPONENT =           "    <component group=\"%s\" name=\"%s\"><![CDATA[%s]]></component>\n";
-    private static final String FILE_START =          "    <file encoding=\"base64\" name=\"%s\">";
-    private static final String FILE_END =            "    </file>";
-    private static final String CONTENT_END =         "  </content>\n";
-    private static final String BATCH_END =           "</batch>\n";
-
-    private final Writer writer;
+    private static final String BATCH_START =              "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                                                           "<batch xmlns=\"http://www.polopoly.com/polopoly/cm/xmlio\">\n";
+    private static final String CONTENT_START =            "  <content>\n";
+    private static final String CONTENT_ID_START =         "    <metadata>\n";
+    private static final XmlTemplate CONTENT_ID =          new XmlTemplate(
+                                                           "      <contentid>\n" +
+                                                           "        <major>%s</major>\n" +
+                                                           "        <externalid>%s</externalid>\n" +
+                                                           "      </contentid>\n");
+    private static final XmlTemplate CONTENT_ID_ALT =      new XmlTemplate(
+                                                           "      <contentid>\n" +
+                                                           "        <externalid>%s</externalid>\n" +
+                                                           "      </contentid>\n");
+    private static final XmlTemplate CONTENT_ID_SECURITY = new XmlTemplate(
+                                                           "      <security-parent>\n" +
+                                                           "        <externalid>%s</externalid>\n" +
+                                                           "      </security-parent>\n");
+    private static final XmlTemplate CONTENT_ID_INPUT =    new XmlTemplate(
+                                                           "      <input-template>\n" +
+                                                           "        <externalid>%s</externalid>\n" +
+                                                           "      </input-template>\n");
+    private static final String WF_ACTIONS_START =         "      <workflowactions>\n";
+    private static final XmlTemplate WF_ACTIONS_ACTION =   new XmlTemplate(
+                                                           "        <action>%s</action>\n");
+    private static final String WF_ACTIONS_END =           "      </workflowactions>\n";
+    private static final String CONTENT_ID_END =           "    </metadata>\n";
+    private static final XmlTemplate LIST_START =          new XmlTemplate(
+                                                           "    <contentlist mode=\"%s\" group=\"%s\">\n");
+    private static final XmlTemplate LIST_ENTRY =          new XmlTemplate(
+                                                           "      <entry mode=\"modify\" withMetadata=\"false\">\n" +
+                                                           "        <metadata>\n" +
+                                                           "          <referredContent>\n" +
+                                                           "            <contentid>\n" +
+                                                           "              <externalid>%s</externalid>\n" +
+                                                           "            </contentid>\n" +
+                                                           "          </referredContent>\n" +
+                                                           "        </metadata>\n" +
+                                                           "      </entry>\n");
+    private static final XmlTemplate LIST_REF_ENTRY =      new XmlTemplate(
+                                                           "      <entry withMetadata=\"true\">\n" +
+                                                           "        <metadata>\n" +
+                                                           "          <referredContent>\n" +
+                                                           "            <contentid>\n" +
+                                                           "              <externalid>%s</externalid>\n" +
+                                                           "            </contentid>\n" +
+                                                           "          </referredContent>\n" +
+                                                           "          <contentid>\n" +
+                                                           "            <externalid>%s</externalid>\n" +
+                                                           "          </contentid>\n" +
+                                                           "        </metadata>\n" +
+                                                           "      </entry>\n");
+    private static final String LIST_END =                 "    </contentlist>\n";
+    private static final XmlTemplate ExternalIdReference = new XmlTemplate(
+                                                           "    <contentref group=\"%s\" name=\"%s\">\n" +
+                                                           "      <contentid>\n" +
+                                                           "        <externalid>%s</externalid>\n" +
+                                                           "      </contentid>\n" +
+                                                           "    </contentref>\n");
+    private static final XmlTemplate COMPONENT =           new XmlTemplate(
+                                                           "    <component group=\"%s\" name=\"%s\"><![CDATA[%s]]></component>\n");
+    private static final XmlTemplate FILE_START =          new XmlTemplate(
+                                                           "    <file encoding=\"base64\" name=\"%s\">");
+    private static final String FILE_END =                 "    </file>";
+    private static final String CONTENT_END =              "  </content>\n";
+    private static final String BATCH_END =                "</batch>\n";
+
+    /**
+     * A whole number of the 57 byte groups encoded on each line of chunked
+     * Base64.
+     */
+    private static final int BASE64_CHUNK_SIZE = 57 * 1024;
+
+    /**
+     * The default number of Base64 encoded bytes of shared attachments held
+     * by a writer that is not given a cache.
+     */
+    public static final long DEFAULT_BASE64_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private static final int ASCII_BUFFER_SIZE = 8 * 1024;
+
+    private final boolean writeBatchElement;
     private Set<String> log = new TreeSet<String>();
+    private Base64Cache base64Cache = new Base64Cache(DEFAULT_BASE64_CACHE_SIZE);
+    private char[] asciiBuffer;
+
+    /**
+     * The writer of the current document, or null between the documents of
+     * split output.
+     */
+    private Writer writer;
+
+    private final DocumentOutput output;
+    private final int maxObjects;
+    private final long maxSize;
+    private CountingWriter document;
+    private int documentCount;
+    private int objectCount;
 
     public TextContentXmlWriter(final Writer writer)
         throws IOException
+    {
+        this(writer, true);
+    }
+
+    /**
+     * @param writeBatchElement whether to surround the content with the XML
+     *        declaration and the batch element. If false, only the content
+     *        elements are written so that the output can be merged into
+     *        another batch.
+     */
+    public TextContentXmlWriter(final Writer writer,
+                                final boolean writeBatchElement)
+        throws IOException
     {
         this.writer = writer;
-        writer.write(BATCH_START);
+        this.writeBatchElement = writeBatchElement;
+        this.output = null;
+        this.maxObjects = 0;
+        this.maxSize = 0;
+
+        if (writeBatchElement) {
+            writer.write(BATCH_START);
+        }
+    }
+
+    /**
+     * Splits the output into batch documents, each opened from the output
+     * when needed, so that a large set is not imported as one document. A
+     * document is closed before an object once it holds the maximum number
+     * of objects (bootstrap definitions included) or has reached the maximum
+     * size. Objects are never split, so a document may exceed the size by
+     * one object.
+     *
+     * The bootstrap definitions never share a document with the full
+     * definitions that depend on them, so every document can be imported on
+     * its own once the ones before it have been.
+     *
+     * @param maxObjects the maximum number of objects in a document, or zero
+     *        for no limit.
+     * @param maxSize the size in characters at which a document is closed,
+     *        or zero for no limit.
+     */
+    public TextContentXmlWriter(final DocumentOutput output,
+                                final int maxObjects,
+                                final long maxSize)
+    {
+        this.writeBatchElement = true;
+        this.output = output;
+        this.maxObjects = maxObjects;
+        this.maxSize = maxSize;
+    }
+
+    public TextContentXmlWriter(final OutputStream outputStream)
+        throws IOException
+    {
+        this(outputStream, true);
+    }
+
+    /**
+     * Writes the XML encoded as UTF-8 straight to the stream, through a
+     * {@link Utf8Writer} with a buffer reused for the whole document. The
+     * stream is closed when the writer is.
+     *
+     * @param writeBatchElement see {@link #TextContentXmlWriter(Writer, boolean)}.
+     */
+    public TextContentXmlWriter(final OutputStream outputStream,
+                                final boolean writeBatchElement)
+        throws IOException
+    {
+        this(new Utf8Writer(outputStream), writeBatchElement);
+    }
+
+    /**
+     * Sets the maximum number of Base64 encoded bytes kept of attachments
+     * written more than once, such as the files of templates, so that they
+     * are only read and encoded once. Zero means attachments are encoded
+     * every time they are written.
+     */
+    public void setBase64CacheSize(final long base64CacheSize)
+    {
+        base64Cache = new Base64Cache(base64CacheSize);
+    }
+
+    /**
+     * Sets the cache of Base64 encoded attachments, which can be shared by
+     * the writers of several .content files, in place of the writer's own.
+     */
+    public void setBase64Cache(final Base64Cache base64Cache)
+    {
+        this.base64Cache = base64Cache;
+    }
+
+    /**
+     * Counts the characters written to a document of split output.
+     */
+    private static class CountingWriter
+        extends FilterWriter
+    {
+        public long count;
+
+        public CountingWriter(final Writer writer)
+        {
+            super(writer);
+        }
+
+        @Override
+        public void write(final int c)
+            throws IOException
+        {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(final char[] chars,
+                          final int offset,
+                          final int length)
+            throws IOException
+        {
+            out.write(chars, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void write(final String string,
+                          final int offset,
+                          final int length)
+            throws IOException
+        {
+            out.write(string, offset, length);
+            count += length;
+        }
     }
 
     private static class PublishList
@@ -98,20 +270,76 @@ public class TextContentXmlWriter
         }
     }
 
+    /**
+     * The publishings into one content, by group.
+     */
+    private static class PublishTarget
+    {
+        public String id;
+
+        public Map<String, PublishList> groups = new HashMap<String, PublishList>();
+
+        public PublishTarget(String id)
+        {
+            this.id = id;
+        }
+
+        /**
+         * @return the groups in the order their lists are written.
+         */
+        public List<String> getSortedGroups()
+        {
+            List<String> sorted = new ArrayList<String>(groups.keySet());
+            Collections.sort(sorted);
+
+            return sorted;
+        }
+    }
+
+    /**
+     * What is looked up in a template, once per template and call to write
+     * rather than for every content using it.
+     */
+    private static class TemplateLookup
+    {
+        public TextContent stub;
+
+        // loaded when the first content using the template is written.
+        public TextContent template;
+
+        public boolean metadataChecked;
+
+        public TemplateOverlay.Orders orders = new TemplateOverlay.Orders();
+
+        public TemplateLookup(TextContent stub)
+        {
+            this.stub = stub;
+        }
+    }
+
+    /**
+     * Writes the bootstrap definitions of all objects, and then the objects.
+     * Only the stubs of the objects are used for the bootstrap definitions
+     * and cross references, and every object is loaded once when it is
+     * written, so a {@link SpilledTextContentSet} never has all of its
+     * objects in memory.
+     */
     public void write(final TextContentSet content)
         throws IOException
     {
-        SortedMap<String, PublishList> publishings = new TreeMap<String, PublishList>();
+        Map<String, PublishTarget> publishings = new HashMap<String, PublishTarget>();
         Map<String, String> metadataRefs = new HashMap<String, String>();
+        Map<String, TemplateLookup> templates = new HashMap<String, TemplateLookup>();
 
-        for (TextContent tc : content) {
+        for (TextContent tc : content.getStubs()) {
             // Write "bootstrap" content definitions
+            startObject();
             writer.write(CONTENT_START);
             writer.write(CONTENT_ID_START);
-            writer.write(String.format(CONTENT_ID, getMajor(tc), tc.getId()));
+            CONTENT_ID.write(writer, Integer.toString(getMajor(tc)), tc.getId());
 
             if (tc.getInputTemplate() != null) {
-                writer.write(String.format(CONTENT_ID_INPUT, tc.getInputTemplate().getExternalId()));
+                CONTENT_ID_INPUT.write(writer, tc.getInputTemplate().getExternalId());
             }
 
             writer.write(CONTENT_ID_END);
@@ -120,103 +348,62 @@ public class TextContentXmlWriter
             // Collect publish definitions to be able to insert them inline
 
             for (Publishing pub : tc.getPublishings()) {
-                String publishIn = pub.getPublishIn().getExternalId();
-                String key = publishIn + ":" + pub.getPublishInGroup();
-
-                PublishList list = publishings.get(key);
-
-                if (list == null) {
-                    list = new PublishList(publishIn, pub.getPublishInGroup());
-                    publishings.put(key, list);
-                }
-
-                list.list.add(new ExternalIdReference(tc.getId(), pub.getPublishIn().getMetadataExternalId()));
+                getPublishList(publishings, pub).list.add(new ExternalIdReference(tc.getId(), pub.getPublishIn().getMetadataExternalId()));
             }
 
-            if (tc.getTemplateId() != null) {
-                TextContent template = content.get(tc.getTemplateId());
+            TemplateLookup lookup = null;
 
-                if (template == null) {
-                    throw new RuntimeException(tc.getId() + " has template " + tc.getTemplateId() + " which was not found in this text content");
-                }
-
-                for (Publishing pub : template.getPublishings()) {
-                    String publishIn = pub.getPublishIn().getExternalId();
-                    String key = publishIn + ":" + pub.getPublishInGroup();
-
-                    PublishList list = publishings.get(key);
-
-                    if (list == null) {
-                        list = new PublishList(publishIn, pub.getPublishInGroup());
-                        publishings.put(key, list);
-                    }
+            if (tc.getTemplateId() != null) {
+                lookup = getTemplate(content, tc, templates);
 
-                    list.list.add(new ExternalIdReference(tc.getId(), pub.getPublishIn().getMetadataExternalId()));
+                for (Publishing pub : lookup.stub.getPublishings()) {
+                    getPublishList(publishings, pub).list.add(new ExternalIdReference(tc.getId(), pub.getPublishIn().getMetadataExternalId()));
                 }
             }
 
             // Check for metadata requirements, since we need to make sure the ExternalIdReference points to the right content
 
-            for (List<ExternalIdReference> list : tc.getLists().values()) {
-                for (ExternalIdReference ref : list) {
-                    if (ref.getMetadataExternalId() != null) {
-                        String earlier = metadataRefs.get(ref.getMetadataExternalId());
-
-                        if (earlier != null) {
-                            if (!earlier.equals(ref.getExternalId())) {
-                                throw new RuntimeException("Invalid ExternalIdReferences, metadata " +
-                                                            ref.getMetadataExternalId() + " is bound to both " +
-                                                            ref.getExternalId() + " and " + earlier);
-                            }
-                        } else {
-                            metadataRefs.put(ref.getMetadataExternalId(), ref.getExternalId());
-                        }
-                    }
-                }
-            }
+            checkMetadataRefs(tc.getLists(), metadataRefs);
 
-            if (tc.getTemplateId() != null) {
-                TextContent template = content.get(tc.getTemplateId());
-
-                for (List<ExternalIdReference> list : template.getLists().values()) {
-                    for (ExternalIdReference ref : list) {
-                        if (ref.getMetadataExternalId() != null) {
-                            String earlier = metadataRefs.get(ref.getMetadataExternalId());
-
-                            if (earlier != null) {
-                                if (!earlier.equals(ref.getExternalId())) {
-                                    throw new RuntimeException("Invalid ExternalIdReferences, metadata " +
-                                                                ref.getMetadataExternalId() + " is bound to both " +
-                                                                ref.getExternalId() + " and " + earlier);
-                                }
-                            } else {
-                                metadataRefs.put(ref.getMetadataExternalId(), ref.getExternalId());
-                            }
-                        }
-                    }
-                }
+            if (lookup != null && !lookup.metadataChecked) {
+                checkMetadataRefs(lookup.stub.getLists(), metadataRefs);
+                lookup.metadataChecked = true;
             }
         }
 
-        for (TextContent tc : content) {
+        if (output != null && writer != null) {
+            // the full definitions go in later documents than the bootstrap definitions.
+            endDocument();
+        }
+
+        for (TextContent stub : content.getStubs()) {
+            TextContent tc = content.load(stub);
+            TemplateLookup lookup = null;
             TextContent template = null;
 
             if (tc.getTemplateId() != null) {
-                template = content.get(tc.getTemplateId());
+                lookup = templates.get(tc.getTemplateId());
+
+                if (lookup.template == null) {
+                    lookup.template = content.load(lookup.stub);
+                }
+
+                template = lookup.template;
             }
 
+            startObject();
             writer.write(CONTENT_START);
             writer.write(CONTENT_ID_START);
-            writer.write(String.format(CONTENT_ID, getMajor(tc), tc.getId()));
+            CONTENT_ID.write(writer, Integer.toString(getMajor(tc)), tc.getId());
 
             if (tc.getSecurityParent() != null) {
-                writer.write(String.format(CONTENT_ID_SECURITY, tc.getSecurityParent().getExternalId()));
+                CONTENT_ID_SECURITY.write(writer, tc.getSecurityParent().getExternalId());
             }
 
             if (tc.getInputTemplate() != null) {
-                writer.write(String.format(CONTENT_ID_INPUT, tc.getInputTemplate().getExternalId()));
+                CONTENT_ID_INPUT.write(writer, tc.getInputTemplate().getExternalId());
             }
-            writeWorkflowActions(mergeWorkflowActions(template, tc.getWorkflowActions()));
+            writeWorkflowActions(template, tc.getWorkflowActions());
 
             writer.write(CONTENT_ID_END);
 
@@ -230,31 +417,20 @@ public class TextContentXmlWriter
                 }
             }
 
-            writeComponents(mergeComps(template, tc.getComponents()));
-            writeExternalIdReferences(mergeRefMeta(mergeRefs(template, tc.getReferences()), metadataRefs.get(tc.getId())));
+            writeComponents(mergeComps(lookup, tc.getComponents()));
+            writeExternalIdReferences(mergeRefMeta(mergeRefs(lookup, tc.getReferences()), metadataRefs.get(tc.getId())));
 
             // The mergePublishList function will add publish entries to declared lists directly (at the end)
 
-            writeLists("reset", mergePublishList(tc.getId(), publishings, mergeLists(template, tc.getLists())));
-            writeFiles(mergeFiles(template, tc.getFiles()));
+            writeLists("reset", mergePublishList(tc.getId(), publishings, mergeLists(lookup, tc.getLists())));
+            writeFiles(mergeFiles(lookup, tc.getFiles()));
 
             // Write publish entries that does not have corresponding list declaration in this content
 
-            List<String> used = new ArrayList<String>();
-
-            for (Map.Entry<String, PublishList> entry : publishings.tailMap(tc.getId()).entrySet()) {
-                if (!entry.getKey().startsWith(tc.getId() + ":")) {
-                    break;
-                }
-
-                if (entry.getValue().id.equals(tc.getId())) {
-                    writeList("modify", entry.getValue().group, entry.getValue().list);
-                    used.add(entry.getKey());
-                }
-            }
+            PublishTarget target = publishings.remove(tc.getId());
 
-            for (String u : used) {
-                publishings.remove(u);
+            if (target != null) {
+                writePublishLists(target);
             }
 
             writer.write(CONTENT_END);
@@ -262,23 +438,58 @@ public class TextContentXmlWriter
 
         // Write publish entries for publications into external content
 
-        for (String contentid : content(publishings)) {
+        for (String contentid : new TreeSet<String>(publishings.keySet())) {
+            startObject();
             writer.write(CONTENT_START);
             writer.write(CONTENT_ID_START);
-            writer.write(String.format(CONTENT_ID_ALT, contentid));
+            CONTENT_ID_ALT.write(writer, contentid);
             writer.write(CONTENT_ID_END);
 
-            for (Map.Entry<String, PublishList> entry : publishings.tailMap(contentid).entrySet()) {
-                if (!entry.getKey().startsWith(contentid)) {
-                    break;
-                }
+            writePublishLists(publishings.get(contentid));
 
-                if (entry.getValue().id.equals(contentid)) {
-                    writeList("modify", entry.getValue().group, entry.getValue().list);
-                }
+            writer.write(CONTENT_END);
+        }
+    }
+
+    private TemplateLookup getTemplate(final TextContentSet content,
+                                       final TextContent tc,
+                                       final Map<String, TemplateLookup> templates)
+    {
+        TemplateLookup lookup = templates.get(tc.getTemplateId());
+
+        if (lookup == null) {
+            TextContent template = content.getStub(tc.getTemplateId());
+
+            if (template == null) {
+                throw new RuntimeException(tc.getId() + " has template " + tc.getTemplateId() + " which was not found in this text content");
             }
 
-            writer.write(CONTENT_END);
+            lookup = new TemplateLookup(template);
+            templates.put(tc.getTemplateId(), lookup);
+        }
+
+        return lookup;
+    }
+
+    private void checkMetadataRefs(final Map<String, List<ExternalIdReference>> lists,
+                                   final Map<String, String> metadataRefs)
+    {
+        for (List<ExternalIdReference> list : lists.values()) {
+            for (ExternalIdReference ref : list) {
+                if (ref.getMetadataExternalId() != null) {
+                    String earlier = metadataRefs.get(ref.getMetadataExternalId());
+
+                    if (earlier != null) {
+                        if (!earlier.equals(ref.getExternalId())) {
+                            throw new RuntimeException("Invalid ExternalIdReferences, metadata " +
+                                                        ref.getMetadataExternalId() + " is bound to both " +
+                                                        ref.getExternalId() + " and " + earlier);
+                        }
+                    } else {
+                        metadataRefs.put(ref.getMetadataExternalId(), ref.getExternalId());
+                    }
+                }
+            }
         }
     }
 
@@ -294,44 +505,24 @@ public class TextContentXmlWriter
 
     // Merge the lists, for now don't merge the individual lists prefer the lists defined in this content.
     // No reason except I don't see a merged list to be useful right now, could be.
-    private Map<String, List<ExternalIdReference>> mergeLists(final TextContent template,
+    private Map<String, List<ExternalIdReference>> mergeLists(final TemplateLookup lookup,
                                                               final Map<String, List<ExternalIdReference>> lists)
     {
-        if (template == null) {
+        if (lookup == null) {
             return lists;
         }
 
-        if (template.getLists().size() == 0) {
-            return lists;
-        }
-
-        Map<String, List<ExternalIdReference>> merged = new HashMap<String, List<ExternalIdReference>>();
-
-        merged.putAll(template.getLists());
-        merged.putAll(lists);
-
-        return merged;
+        return TemplateOverlay.overlay(lookup.template.getLists(), lists, lookup.orders);
     }
 
-    private Map<String, byte[]> mergeFiles(final TextContent template,
-                                           final Map<String, byte[]> files)
+    private Map<String, FileAttachment> mergeFiles(final TemplateLookup lookup,
+                                                   final Map<String, FileAttachment> files)
     {
-        if (template == null) {
-            return files;
-        }
-
-        Map<String, byte[]> templateFiles = template.getFiles();
-
-        if (templateFiles.size() == 0) {
+        if (lookup == null) {
             return files;
         }
 
-        Map<String, byte[]> merged = new HashMap<String, byte[]>();
-
-        merged.putAll(templateFiles);
-        merged.putAll(files);
-
-        return merged;
+        return TemplateOverlay.overlay(lookup.template.getFiles(), files, lookup.orders);
     }
 
     private Map<String, Map<String, ExternalIdReference>> mergeRefMeta(final Map<String, Map<String, ExternalIdReference>> refs,
@@ -370,117 +561,60 @@ public class TextContentXmlWriter
         return merged;
     }
 
-    private Map<String, Map<String, ExternalIdReference>> mergeRefs(final TextContent template,
+    private Map<String, Map<String, ExternalIdReference>> mergeRefs(final TemplateLookup lookup,
                                                                     final Map<String, Map<String, ExternalIdReference>> ExternalIdReferences)
     {
-        if (template == null) {
+        if (lookup == null) {
             return ExternalIdReferences;
         }
 
-        if (template.getReferences().size() == 0) {
-            return ExternalIdReferences;
-        }
-
-        Map<String, Map<String, ExternalIdReference>> merged = new HashMap<String, Map<String,ExternalIdReference>>();
-
-        Set<String> keys = new HashSet<String>();
-        keys.addAll(ExternalIdReferences.keySet());
-        keys.addAll(template.getReferences().keySet());
-
-        for (String key : keys) {
-            Map<String, ExternalIdReference> r1 = ExternalIdReferences.get(key);
-            Map<String, ExternalIdReference> r2 = template.getReferences().get(key);
-
-            if (r1 == null) {
-                merged.put(key, r2);
-            } else if (r2 == null) {
-                merged.put(key, r1);
-            } else {
-                Map<String, ExternalIdReference> child = new HashMap<String, ExternalIdReference>();
-
-                child.putAll(r2);
-                child.putAll(r1);
-
-                merged.put(key,  child);
-            }
-        }
-
-        return merged;
+        return TemplateOverlay.overlayGroups(lookup.template.getReferences(), ExternalIdReferences, lookup.orders);
     }
 
-    private Map<String, Map<String, String>> mergeComps(final TextContent template,
+    private Map<String, Map<String, String>> mergeComps(final TemplateLookup lookup,
                                                         final Map<String, Map<String, String>> components)
     {
-        if (template == null) {
+        if (lookup == null) {
             return components;
         }
 
-        if (template.getComponents().size() == 0) {
-            return components;
-        }
-
-        Map<String, Map<String, String>> merged = new HashMap<String, Map<String,String>>();
-
-        Set<String> keys = new HashSet<String>();
-
-        keys.addAll(components.keySet());
-        keys.addAll(template.getComponents().keySet());
-
-        for (String key : keys) {
-            Map<String, String> r1 = components.get(key);
-            Map<String, String> r2 = template.getComponents().get(key);
-
-            if (r1 == null) {
-                merged.put(key, r2);
-            } else if (r2 == null) {
-                merged.put(key, r1);
-            } else {
-                Map<String, String> child = new HashMap<String, String>();
-
-                child.putAll(r2);
-                child.putAll(r1);
-
-                merged.put(key,  child);
-            }
-        }
-
-        return merged;
+        return TemplateOverlay.overlayGroups(lookup.template.getComponents(), components, lookup.orders);
     }
 
-    private List<String> mergeWorkflowActions(TextContent template, List<String> workflowActions)
+    private PublishList getPublishList(final Map<String, PublishTarget> publishings,
+                                       final Publishing pub)
     {
-        if (template == null) {
-            return workflowActions;
-        }
+        String publishIn = pub.getPublishIn().getExternalId();
+        PublishTarget target = publishings.get(publishIn);
 
-        if (template.getWorkflowActions().size() == 0) {
-            return workflowActions;
+        if (target == null) {
+            target = new PublishTarget(publishIn);
+            publishings.put(publishIn, target);
         }
 
-        List<String> mergedList = new ArrayList<String>(template.getWorkflowActions());
-        mergedList.addAll(workflowActions);
-        return mergedList;
-    }
-
-    private Set<String> content(final SortedMap<String, PublishList> publishings)
-    {
-        Set<String> set = new TreeSet<String>();
+        PublishList list = target.groups.get(pub.getPublishInGroup());
 
-        for (PublishList pl : publishings.values()) {
-            set.add(pl.id);
+        if (list == null) {
+            list = new PublishList(publishIn, pub.getPublishInGroup());
+            target.groups.put(pub.getPublishInGroup(), list);
         }
 
-        return set;
+        return list;
     }
 
     private Map<String, List<ExternalIdReference>> mergePublishList(final String id,
-                                                                    final Map<String, PublishList> publishings,
+                                                                    final Map<String, PublishTarget> publishings,
                                                                     final Map<String, List<ExternalIdReference>> lists)
     {
         Map<String, List<ExternalIdReference>> result = new HashMap<String, List<ExternalIdReference>>();
+        PublishTarget target = publishings.get(id);
 
         for (Map.Entry<String, List<ExternalIdReference>> entry : lists.entrySet()) {
-            PublishList publish = publishings.get(id + ":" + entry.getKey());
+            PublishList publish = null;
+
+            if (target != null) {
+                publish = target.groups.remove(entry.getKey());
+            }
 
             if (publish == null) {
                 result.put(entry.getKey(), entry.getValue());
@@ -491,30 +625,120 @@ public class TextContentXmlWriter
                 l.addAll(publish.list);
 
                 result.put(entry.getKey(), l);
-                publishings.remove(id + ":" + entry.getKey());
             }
         }
 
         return result;
     }
 
-    private void writeFiles(final Map<String, byte[]> files)
+    private void writeFiles(final Map<String, FileAttachment> files)
         throws IOException
     {
         List<String> names = new ArrayList<String>(files.keySet());
         Collections.sort(names);
 
         for (String name : names) {
-            writer.write(String.format(FILE_START, name));
+            FILE_START.write(writer, name);
             writeBase64(files.get(name));
             writer.write(FILE_END);
         }
     }
 
-    private void writeBase64(final byte[] bs)
+    /**
+     * Writes the file as chunked Base64, from the cache if it has been
+     * encoded before.
+     */
+    private void writeBase64(final FileAttachment file)
+        throws IOException
+    {
+        byte[] encoded = base64Cache.get(file);
+
+        if (encoded == null && base64Cache.isCacheable(file)) {
+            ByteArrayOutputStream outputStream =
+                new ByteArrayOutputStream((int) Base64Cache.encodedLength(file.getSize()));
+
+            encodeBase64(file, outputStream);
+            encoded = outputStream.toByteArray();
+            base64Cache.put(file, encoded);
+        }
+
+        if (encoded == null) {
+            encodeBase64(file, null);
+        } else {
+            writeAscii(encoded, encoded.length);
+        }
+    }
+
+    /**
+     * Encodes the file a chunk at a time, to the output stream or, if null,
+     * to the writer. Chunks are a whole number of 76 character Base64 lines,
+     * so the output is the same as when encoding the whole file at once.
+     */
+    private void encodeBase64(final FileAttachment file,
+                              final OutputStream outputStream)
+        throws IOException
+    {
+        InputStream inputStream = file.open();
+
+        try {
+            byte[] chunk = new byte[BASE64_CHUNK_SIZE];
+            int length;
+
+            while ((length = readChunk(inputStream, chunk)) > 0) {
+                byte[] bytes = Base64.encodeBase64(length == chunk.length ? chunk : Arrays.copyOf(chunk, length), true);
+
+                if (outputStream != null) {
+                    outputStream.write(bytes);
+                } else {
+                    writeAscii(bytes, bytes.length);
+                }
+
+                if (length < chunk.length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Could not read file " + file + ".", e);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void writeAscii(final byte[] bytes,
+                            final int length)
         throws IOException
     {
-        writer.write(new String(Base64.encodeBase64(bs,  true)));
+        if (asciiBuffer == null) {
+            asciiBuffer = new char[ASCII_BUFFER_SIZE];
+        }
+
+        for (int offset = 0; offset < length; offset += asciiBuffer.length) {
+            int count = Math.min(asciiBuffer.length, length - offset);
+
+            for (int i = 0; i < count; i++) {
+                asciiBuffer[i] = (char) bytes[offset + i];
+            }
+
+            writer.write(asciiBuffer, 0, count);
+        }
+    }
+
+    /**
+     * @return the number of bytes read, less than the size of the chunk only
+     *         at the end of the stream.
+     */
+    private static int readChunk(final InputStream inputStream,
+                                 final byte[] chunk)
+        throws IOException
+    {
+        int length = 0;
+        int read;
+
+        while (length < chunk.length && (read = inputStream.read(chunk, length, chunk.length - length)) != -1) {
+            length += read;
+        }
+
+        return length;
     }
 
     private void writeLists(final String mode,
@@ -526,18 +750,26 @@ public class TextContentXmlWriter
         }
     }
 
+    private void writePublishLists(final PublishTarget target)
+        throws IOException
+    {
+        for (String group : target.getSortedGroups()) {
+            writeList("modify", group, target.groups.get(group).list);
+        }
+    }
+
     private void writeList(final String mode,
                            final String group,
                            final List<ExternalIdReference> list)
         throws IOException
     {
-        writer.write(String.format(LIST_START, mode, group));
+        LIST_START.write(writer, mode, group);
 
         for (ExternalIdReference ref : list) {
             if (ref.getMetadataExternalId() != null) {
-                writer.write(String.format(LIST_REF_ENTRY, ref.getExternalId(), ref.getMetadataExternalId()));
+                LIST_REF_ENTRY.write(writer, ref.getExternalId(), ref.getMetadataExternalId());
             } else {
-                writer.write(String.format(LIST_ENTRY, ref.getExternalId()));
+                LIST_ENTRY.write(writer, ref.getExternalId());
             }
         }
 
@@ -549,7 +781,7 @@ public class TextContentXmlWriter
     {
         for (Map.Entry<String, Map<String, ExternalIdReference>> group : ExternalIdReferences.entrySet()) {
             for (Map.Entry<String, ExternalIdReference> nameValue : group.getValue().entrySet()) {
-                writer.write(String.format(ExternalIdReference, group.getKey(), nameValue.getKey(), nameValue.getValue()));
+                ExternalIdReference.write(writer, group.getKey(), nameValue.getKey(), String.valueOf(nameValue.getValue()));
             }
         }
     }
@@ -559,20 +791,29 @@ public class TextContentXmlWriter
     {
         for (Map.Entry<String, Map<String, String>> group : components.entrySet()) {
             for (Map.Entry<String, String> nameValue : group.getValue().entrySet()) {
-                writer.write(String.format(COMPONENT, group.getKey(), nameValue.getKey(), nameValue.getValue()));
+                COMPONENT.write(writer, group.getKey(), nameValue.getKey(), nameValue.getValue());
             }
         }
     }
 
-    private void writeWorkflowActions(List<String> workflowActions)
+    private void writeWorkflowActions(TextContent template, List<String> workflowActions)
         throws IOException
     {
-        if (workflowActions.size() == 0) {
+        List<String> templateActions = Collections.emptyList();
+
+        if (template != null) {
+            templateActions = template.getWorkflowActions();
+        }
+
+        if (templateActions.size() == 0 && workflowActions.size() == 0) {
             return;
         }
         writer.write(WF_ACTIONS_START);
+        for (String action : templateActions) {
+            WF_ACTIONS_ACTION.write(writer, action);
+        }
         for (String action : workflowActions) {
-            writer.write(String.format(WF_ACTIONS_ACTION, action));
+            WF_ACTIONS_ACTION.write(writer, action);
         }
         writer.write(WF_ACTIONS_END);
     }
@@ -581,11 +822,66 @@ public class TextContentXmlWriter
         return new ArrayList<String>(log);
     }
 
-    public void close()
+    /**
+     * Starts a new document of split output before an object if needed.
+     */
+    private void startObject()
         throws IOException
     {
-        writer.write(BATCH_END);
+        if (output == null) {
+            return;
+        }
+
+        if (writer != null &&
+                ((maxObjects > 0 && objectCount >= maxObjects) || (maxSize > 0 && document.count >= maxSize))) {
+            endDocument();
+        }
+
+        if (writer == null) {
+            startDocument();
+        }
+
+        objectCount++;
+    }
+
+    private void startDocument()
+        throws IOException
+    {
+        document = new CountingWriter(output.nextDocument());
+        writer = document;
+        documentCount++;
+        objectCount = 0;
+
+        writer.write(BATCH_START);
+    }
+
+    private void endDocument()
+        throws IOException
+    {
+        if (writeBatchElement) {
+            writer.write(BATCH_END);
+        }
+
         writer.flush();
         writer.close();
+        writer = null;
+    }
+
+    /**
+     * Completes the last document. Split output of an empty set is a single
+     * empty document.
+     */
+    public void close()
+        throws IOException
+    {
+        if (writer == null) {
+            if (documentCount > 0) {
+                return;
+            }
+
+            startDocument();
+        }
+
+        endDocument();
     }
 }
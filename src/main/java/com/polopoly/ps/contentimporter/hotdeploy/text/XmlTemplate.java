@@ -0,0 +1,107 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A fragment of XML with <code>%s</code> placeholders, split into its literal
+ * segments once so that writing it only appends the segments and the values
+ * to the writer. Writes the same as
+ * <code>writer.write(String.format(pattern, values))</code> for string
+ * values, including <code>null</code> values being written as "null".
+ */
+final class XmlTemplate
+{
+    private static final String PLACEHOLDER = "%s";
+
+    private final String pattern;
+
+    private final String[] segments;
+
+    XmlTemplate(final String pattern)
+    {
+        this.pattern = pattern;
+
+        int placeholders = 0;
+
+        for (int i = pattern.indexOf(PLACEHOLDER); i != -1; i = pattern.indexOf(PLACEHOLDER, i + PLACEHOLDER.length())) {
+            placeholders++;
+        }
+
+        segments = new String[placeholders + 1];
+
+        int start = 0;
+
+        for (int i = 0; i < placeholders; i++) {
+            int end = pattern.indexOf(PLACEHOLDER, start);
+
+            segments[i] = pattern.substring(start, end);
+            start = end + PLACEHOLDER.length();
+        }
+
+        segments[placeholders] = pattern.substring(start);
+    }
+
+    void write(final Writer writer,
+               final String value)
+        throws IOException
+    {
+        checkValues(1);
+
+        writer.write(segments[0]);
+        writeValue(writer, value);
+        writer.write(segments[1]);
+    }
+
+    void write(final Writer writer,
+               final String value1,
+               final String value2)
+        throws IOException
+    {
+        checkValues(2);
+
+        writer.write(segments[0]);
+        writeValue(writer, value1);
+        writer.write(segments[1]);
+        writeValue(writer, value2);
+        writer.write(segments[2]);
+    }
+
+    void write(final Writer writer,
+               final String value1,
+               final String value2,
+               final String value3)
+        throws IOException
+    {
+        checkValues(3);
+
+        writer.write(segments[0]);
+        writeValue(writer, value1);
+        writer.write(segments[1]);
+        writeValue(writer, value2);
+        writer.write(segments[2]);
+        writeValue(writer, value3);
+        writer.write(segments[3]);
+    }
+
+    private void checkValues(final int values)
+    {
+        if (segments.length != values + 1) {
+            throw new IllegalArgumentException("Expected " + (segments.length - 1) + " values for " + pattern +
+                                               " but got " + values + ".");
+        }
+    }
+
+    private static void writeValue(final Writer writer,
+                                   final String value)
+        throws IOException
+    {
+        writer.write(value != null ? value : "null");
+    }
+
+    @Override
+    public String toString()
+    {
+        return pattern;
+    }
+}
@@ -0,0 +1,297 @@
+package com.polopoly.ps.contentimporter.hotdeploy.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+
+/**
+ * Reads resources in bulk. Local files are read through a {@link FileChannel}
+ * into a buffer of the file's size, and memory mapped if larger than
+ * {@link #MAPPING_THRESHOLD}. Other URLs (such as <code>jar:</code> URLs) are
+ * read in bulk into a buffer sized from the content length, where known.
+ *
+ * Only XML is decoded straight from a mapping. The bytes of .content files
+ * are parsed from a stream and attachments are copied in chunks as they are
+ * written, so mapping them would only add a copy.
+ */
+public final class ResourceLoader {
+    /**
+     * Files at least this large are memory mapped rather than read when
+     * decoded as text.
+     */
+    public static final long MAPPING_THRESHOLD = 1024 * 1024;
+
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int PROLOG_SCAN_LENGTH = 256;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private ResourceLoader() {
+    }
+
+    /**
+     * Reads all bytes of the resource.
+     */
+    public static byte[] readBytes(URL url) throws IOException {
+        File file = toFile(url);
+
+        if (file != null) {
+            return readBytes(file);
+        }
+
+        URLConnection connection = url.openConnection();
+        InputStream inputStream = connection.getInputStream();
+
+        try {
+            return readBytes(inputStream, connection.getContentLengthLong());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads all bytes of the file into an array of the file's size.
+     */
+    public static byte[] readBytes(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+
+        try {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+
+            if (size > MAX_ARRAY_SIZE) {
+                throw new IOException("File " + file + " is too large to be read (" + size + " bytes).");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+
+            if (buffer.hasRemaining()) {
+                return Arrays.copyOf(buffer.array(), buffer.position());
+            }
+
+            // the file may have grown since we checked its size.
+            return readRemaining(inputStream, buffer.array());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads the stream to its end. Does not close it.
+     *
+     * @param expectedLength the number of bytes expected or -1 if unknown.
+     *        Used to size the buffer only.
+     */
+    public static byte[] readBytes(InputStream inputStream, long expectedLength) throws IOException {
+        int initialSize = DEFAULT_BUFFER_SIZE;
+
+        if (expectedLength >= 0 && expectedLength <= MAX_ARRAY_SIZE) {
+            initialSize = (int) expectedLength;
+        }
+
+        byte[] buffer = new byte[initialSize];
+        int length = 0;
+        int read;
+
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+
+        if (length < buffer.length) {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        return readRemaining(inputStream, buffer);
+    }
+
+    /**
+     * Reads an XML resource to a string, detecting the encoding from the byte
+     * order mark or the XML declaration. Defaults to UTF-8.
+     */
+    public static String readXml(URL url) throws IOException {
+        File file = toFile(url);
+
+        if (file != null && file.length() >= MAPPING_THRESHOLD) {
+            FileInputStream inputStream = new FileInputStream(file);
+
+            try {
+                FileChannel channel = inputStream.getChannel();
+
+                return decodeXml(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        return decodeXml(ByteBuffer.wrap(readBytes(url)));
+    }
+
+    /**
+     * Decodes XML, detecting the encoding from the byte order mark or the XML
+     * declaration. Any byte order mark is not included in the result.
+     */
+    public static String decodeXml(ByteBuffer bytes) {
+        Charset charset = detectXmlCharset(bytes);
+
+        // malformed input is replaced, as InputStreamReader does.
+        return charset.decode(bytes).toString();
+    }
+
+    /**
+     * Detects the encoding of an XML document, advancing the position of the
+     * buffer past any byte order mark.
+     */
+    static Charset detectXmlCharset(ByteBuffer bytes) {
+        int start = bytes.position();
+        int available = bytes.remaining();
+
+        int b0 = available > 0 ? bytes.get(start) & 0xFF : -1;
+        int b1 = available > 1 ? bytes.get(start + 1) & 0xFF : -1;
+        int b2 = available > 2 ? bytes.get(start + 2) & 0xFF : -1;
+        int b3 = available > 3 ? bytes.get(start + 3) & 0xFF : -1;
+
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            bytes.position(start + 3);
+            return UTF_8;
+        } else if (b0 == 0xFE && b1 == 0xFF) {
+            bytes.position(start + 2);
+            return UTF_16BE;
+        } else if (b0 == 0xFF && b1 == 0xFE) {
+            bytes.position(start + 2);
+            return UTF_16LE;
+        } else if (b0 == 0x00 && b1 == '<' && b2 == 0x00 && b3 == '?') {
+            return UTF_16BE;
+        } else if (b0 == '<' && b1 == 0x00 && b2 == '?' && b3 == 0x00) {
+            return UTF_16LE;
+        }
+
+        String declared = getDeclaredEncoding(bytes);
+
+        if (declared != null) {
+            try {
+                return Charset.forName(declared);
+            } catch (IllegalCharsetNameException e) {
+                return UTF_8;
+            } catch (UnsupportedCharsetException e) {
+                return UTF_8;
+            }
+        }
+
+        return UTF_8;
+    }
+
+    private static String getDeclaredEncoding(ByteBuffer bytes) {
+        int start = bytes.position();
+        int length = Math.min(bytes.remaining(), PROLOG_SCAN_LENGTH);
+
+        StringBuilder prolog = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            char ch = (char) (bytes.get(start + i) & 0xFF);
+            prolog.append(ch);
+
+            if (ch == '>') {
+                break;
+            }
+        }
+
+        if (prolog.indexOf("<?xml") != 0) {
+            return null;
+        }
+
+        int encoding = prolog.indexOf("encoding");
+
+        if (encoding == -1) {
+            return null;
+        }
+
+        int quote = encoding + "encoding".length();
+
+        while (quote < prolog.length() && prolog.charAt(quote) != '"' && prolog.charAt(quote) != '\'') {
+            quote++;
+        }
+
+        if (quote >= prolog.length()) {
+            return null;
+        }
+
+        int end = prolog.indexOf(String.valueOf(prolog.charAt(quote)), quote + 1);
+
+        if (end == -1) {
+            return null;
+        }
+
+        return prolog.substring(quote + 1, end).trim();
+    }
+
+    /**
+     * @return the local file of a <code>file:</code> URL or null if the URL
+     *         does not refer to a local file.
+     */
+    public static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // e.g. URLs with an authority component.
+            return null;
+        }
+    }
+
+    /**
+     * Reads the rest of the stream after the buffer has been filled. In the
+     * usual case the buffer was sized from the length of the stream and is
+     * returned as is, after a single read finding the end of the stream.
+     */
+    private static byte[] readRemaining(InputStream inputStream, byte[] buffer) throws IOException {
+        int length = buffer.length;
+        int read;
+
+        while (true) {
+            if (length == buffer.length) {
+                int next = inputStream.read();
+
+                if (next == -1) {
+                    return buffer;
+                }
+
+                if (length == MAX_ARRAY_SIZE) {
+                    throw new IOException("Resource is too large to be read.");
+                }
+
+                int newLength = (int) Math.min((long) Math.max(length, DEFAULT_BUFFER_SIZE) * 2, MAX_ARRAY_SIZE);
+                buffer = Arrays.copyOf(buffer, newLength);
+                buffer[length++] = (byte) next;
+            }
+
+            read = inputStream.read(buffer, length, buffer.length - length);
+
+            if (read == -1) {
+                return Arrays.copyOf(buffer, length);
+            }
+
+            length += read;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.polopoly.ps.contentimporter.hotdeploy.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads characters encoded as UTF-8, encoding them a buffer at a time as the
+ * stream is read rather than all at once as {@link String#getBytes(String)}
+ * would. Unpaired surrogates are replaced, as by getBytes.
+ */
+public final class Utf8InputStream extends InputStream {
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The bytes of a surrogate pair, which is encoded in one go.
+     */
+    private static final int MIN_BUFFER_SIZE = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final CharBuffer chars;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private boolean encoded;
+
+    public Utf8InputStream(CharSequence chars) {
+        this(chars, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8InputStream(CharSequence chars, int bufferSize) {
+        this.chars = CharBuffer.wrap(chars);
+        this.encoder = UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(Math.max(bufferSize, MIN_BUFFER_SIZE));
+
+        bytes.flip();
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+
+        return bytes.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (!fill()) {
+            return -1;
+        }
+
+        int read = Math.min(length, bytes.remaining());
+        bytes.get(buffer, offset, read);
+
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return bytes.remaining();
+    }
+
+    /**
+     * Encodes the next characters if all encoded bytes have been read.
+     *
+     * @return false at the end of the characters.
+     */
+    private boolean fill() {
+        while (!bytes.hasRemaining()) {
+            if (encoded) {
+                return false;
+            }
+
+            bytes.clear();
+
+            CoderResult result = encoder.encode(chars, bytes, true);
+
+            if (result.isUnderflow()) {
+                // UTF-8 keeps no state to flush once all characters are encoded.
+                encoder.flush(bytes);
+                encoded = true;
+            }
+
+            bytes.flip();
+        }
+
+        return true;
+    }
+}
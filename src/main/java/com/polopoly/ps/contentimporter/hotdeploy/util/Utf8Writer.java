@@ -0,0 +1,174 @@
+package com.polopoly.ps.contentimporter.hotdeploy.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes characters as UTF-8 into a reusable buffer that is written to an
+ * output stream when full. Unlike an {@link java.io.OutputStreamWriter}, no
+ * character buffer or encoder is involved, which matters for writers such as
+ * the content XML writer that make many small writes.
+ *
+ * Unpaired surrogates are written as '?', as an OutputStreamWriter would.
+ * The writer is not thread safe.
+ */
+public final class Utf8Writer extends Writer {
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The most bytes a character is encoded as: a surrogate pair, or an
+     * unpaired high surrogate replaced and followed by any other character.
+     */
+    private static final int MAX_CHAR_LENGTH = 4;
+
+    private static final byte REPLACEMENT = '?';
+
+    private final OutputStream outputStream;
+    private final byte[] buffer;
+    private int position;
+
+    /**
+     * A high surrogate written last, waiting for its low surrogate, or zero.
+     */
+    private char highSurrogate;
+
+    public Utf8Writer(OutputStream outputStream) {
+        this(outputStream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8Writer(OutputStream outputStream, int bufferSize) {
+        if (bufferSize < MAX_CHAR_LENGTH) {
+            throw new IllegalArgumentException("The buffer must hold at least " + MAX_CHAR_LENGTH + " bytes.");
+        }
+
+        this.outputStream = outputStream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (position > buffer.length - MAX_CHAR_LENGTH) {
+            flushBuffer();
+        }
+
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+
+            if (position > buffer.length - MAX_CHAR_LENGTH) {
+                flushBuffer();
+            }
+
+            if (c < 0x80 && highSurrogate == 0) {
+                buffer[position++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            char c = string.charAt(i);
+
+            if (position > buffer.length - MAX_CHAR_LENGTH) {
+                flushBuffer();
+            }
+
+            if (c < 0x80 && highSurrogate == 0) {
+                buffer[position++] = (byte) c;
+            } else {
+                encode(c);
+            }
+        }
+    }
+
+    /**
+     * Encodes a character, assuming the buffer has room for it.
+     */
+    private void encode(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+
+                return;
+            }
+
+            // the replacement and a character take at most as much room as a pair.
+            buffer[position++] = REPLACEMENT;
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = REPLACEMENT;
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            outputStream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the stream and flushes it. A high
+     * surrogate written last stays buffered until its low surrogate is
+     * written.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    /**
+     * Flushes the writer and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+
+            buffer[position++] = REPLACEMENT;
+        }
+
+        try {
+            flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.polopoly.ps.contentimporter.hotdeploy.util;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Keeps the XML parsers of the import path for reuse by the thread that
+ * used them, so that parsing a file does not look up and configure a JAXP
+ * factory and build a parser every time. Factories are created with secure
+ * processing enabled, which also keeps parsers from loading external DTDs
+ * and schemas.
+ *
+ * A parser that is acquired must be released by the same thread when done,
+ * which resets it so that it holds no state of the last document. A thread
+ * keeps one idle parser of every kind; a parser acquired while another is in
+ * use is created anew.
+ */
+public final class XmlParserPool {
+    private static final Pool<DocumentBuilder> DOCUMENT_BUILDERS = new Pool<DocumentBuilder>();
+
+    private static final Pool<DocumentBuilder> NAMESPACE_AWARE_DOCUMENT_BUILDERS = new Pool<DocumentBuilder>();
+
+    private static final Pool<SAXParser> SAX_PARSERS = new Pool<SAXParser>();
+
+    private static final Pool<Transformer> TRANSFORMERS = new Pool<Transformer>();
+
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+
+            // element and attribute names are seen as by the DOM builders that are not namespace aware.
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+
+            return factory;
+        }
+    };
+
+    private XmlParserPool() {
+    }
+
+    /**
+     * The idle object of every thread.
+     */
+    private static class Pool<T> {
+        private final ThreadLocal<T> idle = new ThreadLocal<T>();
+
+        T take() {
+            T object = idle.get();
+
+            if (object != null) {
+                idle.remove();
+            }
+
+            return object;
+        }
+
+        void put(T object) {
+            if (idle.get() == null) {
+                idle.set(object);
+            }
+        }
+    }
+
+    /**
+     * @param namespaceAware whether the builder is namespace aware. Builders
+     *        that are not see element names with their prefix.
+     */
+    public static DocumentBuilder acquireDocumentBuilder(boolean namespaceAware) throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilders(namespaceAware).take();
+
+        if (builder == null) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setNamespaceAware(namespaceAware);
+
+            builder = factory.newDocumentBuilder();
+        }
+
+        return builder;
+    }
+
+    public static void release(DocumentBuilder builder) {
+        builder.reset();
+
+        documentBuilders(builder.isNamespaceAware()).put(builder);
+    }
+
+    private static Pool<DocumentBuilder> documentBuilders(boolean namespaceAware) {
+        return namespaceAware ? NAMESPACE_AWARE_DOCUMENT_BUILDERS : DOCUMENT_BUILDERS;
+    }
+
+    /**
+     * @return a namespace aware SAX parser.
+     */
+    public static SAXParser acquireSaxParser() throws ParserConfigurationException, SAXException {
+        SAXParser parser = SAX_PARSERS.take();
+
+        if (parser == null) {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setNamespaceAware(true);
+
+            parser = factory.newSAXParser();
+        }
+
+        return parser;
+    }
+
+    public static void release(SAXParser parser) {
+        parser.reset();
+
+        SAX_PARSERS.put(parser);
+    }
+
+    /**
+     * @return an identity transformer with the default output properties.
+     */
+    public static Transformer acquireTransformer() throws TransformerConfigurationException {
+        Transformer transformer = TRANSFORMERS.take();
+
+        if (transformer == null) {
+            TransformerFactory factory = TransformerFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+
+            transformer = factory.newTransformer();
+        }
+
+        return transformer;
+    }
+
+    public static void release(Transformer transformer) {
+        transformer.reset();
+
+        TRANSFORMERS.put(transformer);
+    }
+
+    /**
+     * @return the StAX factory of the thread, which is not namespace aware.
+     *         Readers hold no state once closed, so the factory need not be
+     *         released.
+     */
+    public static XMLInputFactory getInputFactory() {
+        return INPUT_FACTORY.get();
+    }
+}
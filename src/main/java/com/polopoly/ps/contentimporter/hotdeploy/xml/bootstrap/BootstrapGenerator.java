@@ -1,23 +1,65 @@
 package com.polopoly.ps.contentimporter.hotdeploy.xml.bootstrap;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
 import com.polopoly.ps.contentimporter.hotdeploy.xml.bootstrap.Bootstrap;
 import com.polopoly.ps.contentimporter.hotdeploy.xml.bootstrap.BootstrapContent;
 import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.DeploymentFileParser;
+import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.cache.FileParseCallbackMemento;
 
 public class BootstrapGenerator
 {
+    /**
+     * The number of files parsed ahead of the gatherer per thread, which
+     * bounds the callbacks held in memory.
+     */
+    private static final int FILES_AHEAD_PER_THREAD = 4;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
     private DeploymentFileParser parser;
 
+    private int parallelism = 1;
+
     public BootstrapGenerator(final DeploymentFileParser parser)
     {
         this.parser = parser;
     }
 
+    /**
+     * Sets the number of threads parsing files. With a parallelism above one
+     * the callbacks of every file are recorded by the thread parsing it and
+     * passed on to the gatherer in the order of the files, so the bootstrap
+     * is the same as when parsing the files one at a time. The parser must
+     * then be thread safe. Defaults to one, i.e. parsing in the calling
+     * thread.
+     */
+    public void setParallelism(final int parallelism)
+    {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one, was " + parallelism);
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
     public PhaseOneBootstrap generateTemplateBootstrap(final List<DeploymentFile> files)
     {
         TemplateGatherer gatherer = new TemplateGatherer();
@@ -40,8 +82,12 @@ public class BootstrapGenerator
                                         final BootstrapGatherer gatherer,
                                         final Bootstrap result)
     {
-        for (DeploymentFile deploymentFile : files) {
-            parser.parse(deploymentFile, gatherer);
+        if (parallelism > 1) {
+            parseInParallel(files, gatherer);
+        } else {
+            for (DeploymentFile deploymentFile : files) {
+                parser.parse(deploymentFile, gatherer);
+            }
         }
 
         Iterator<BootstrapContent> bootstrapContentIterator = gatherer.getBootstrapContent().iterator();
@@ -61,4 +107,110 @@ public class BootstrapGenerator
 
         return result;
     }
+
+    /**
+     * The callbacks of a file and the exception parsing it ended with, if
+     * any.
+     */
+    private static class ParsedFile
+    {
+        private final FileParseCallbackMemento memento;
+        private final RuntimeException failure;
+
+        ParsedFile(final FileParseCallbackMemento memento,
+                   final RuntimeException failure)
+        {
+            this.memento = memento;
+            this.failure = failure;
+        }
+    }
+
+    private void parseInParallel(final List<DeploymentFile> files,
+                                 final BootstrapGatherer gatherer)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ParserThreadFactory());
+        Deque<Future<ParsedFile>> inFlight = new ArrayDeque<Future<ParsedFile>>();
+        Iterator<DeploymentFile> fileIterator = files.iterator();
+
+        try {
+            while (true) {
+                while (inFlight.size() < parallelism * FILES_AHEAD_PER_THREAD && fileIterator.hasNext()) {
+                    inFlight.add(executor.submit(parseTask(fileIterator.next())));
+                }
+
+                Future<ParsedFile> head = inFlight.poll();
+
+                if (head == null) {
+                    break;
+                }
+
+                ParsedFile parsedFile = await(head);
+
+                // a failing file has its callbacks up to the failure passed on, as when parsing in this thread.
+                parsedFile.memento.replay(gatherer);
+
+                if (parsedFile.failure != null) {
+                    throw parsedFile.failure;
+                }
+            }
+        } finally {
+            for (Future<ParsedFile> future : inFlight) {
+                future.cancel(true);
+            }
+
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<ParsedFile> parseTask(final DeploymentFile file)
+    {
+        return new Callable<ParsedFile>() {
+            public ParsedFile call()
+            {
+                FileParseCallbackMemento memento = new FileParseCallbackMemento(file);
+
+                try {
+                    parser.parse(file, memento);
+                } catch (RuntimeException e) {
+                    return new ParsedFile(memento, e);
+                }
+
+                return new ParsedFile(memento, null);
+            }
+        };
+    }
+
+    private ParsedFile await(final Future<ParsedFile> future)
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for files to be parsed.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    private static class ParserThreadFactory
+        implements ThreadFactory
+    {
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(final Runnable runnable)
+        {
+            Thread thread = new Thread(runnable,
+                "bootstrap-" + poolNumber + "-parser-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
 }
@@ -10,6 +10,24 @@ import com.polopoly.ps.contentimporter.hotdeploy.file.FileDeploymentDirectory;
 import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.DeploymentFileParser;
 
 public class TwoPhaseBootstrapper {
+    private int parallelism = 1;
+
+    /**
+     * Sets the number of threads parsing the files of each phase (see
+     * {@link BootstrapGenerator#setParallelism(int)}).
+     */
+    public void setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one, was " + parallelism);
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
     public TwoPhaseBootstrapResult bootstrap(final DeploymentFileParser xmlParser, final List<DeploymentFile> files,
                                              final List<List<DeploymentFile>> partialOrder) {
         ImportOrder importOrder = new ImportOrder(new FileDeploymentDirectory(new File(".")));
@@ -29,6 +47,7 @@ public class TwoPhaseBootstrapper {
         }
 
         BootstrapGenerator bootstrapGenerator = new BootstrapGenerator(xmlParser);
+        bootstrapGenerator.setParallelism(parallelism);
 
         PhaseOneBootstrap templateBootstrap = bootstrapGenerator.generateTemplateBootstrap(importOrder);
         Bootstrap contentBootstrap =
@@ -1,17 +1,15 @@
 package com.polopoly.ps.contentimporter.hotdeploy.xml.parser;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import com.polopoly.ps.contentimporter.hotdeploy.client.Major;
 import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
-import com.polopoly.ps.contentimporter.hotdeploy.util.CheckedCast;
-import com.polopoly.ps.contentimporter.hotdeploy.util.CheckedClassCastException;
-import com.polopoly.ps.contentimporter.hotdeploy.util.FetchingIterator;
 
 public abstract class AbstractParser
 {
@@ -20,6 +18,14 @@ public abstract class AbstractParser
     protected ParseCallback callback;
     protected DeploymentFile file;
 
+    /**
+     * The text of the last major and externalid child of the elements being
+     * visited by findContentReferences, by their depth below the element the
+     * walk started from.
+     */
+    private String[] majorNames = new String[16];
+    private String[] externalIds = new String[16];
+
     protected AbstractParser(DeploymentFile file, ParseCallback callback)
     {
         this.callback = callback;
@@ -28,21 +34,33 @@ public abstract class AbstractParser
 
     protected ParsedContentId parseContentId(Element contentIdElement)
     {
-        Major major = null;
         String majorName = null;
         String externalId = null;
 
-        for (Element externalIdElement : children(contentIdElement)) {
+        for (Element externalIdElement = Elements.firstChild(contentIdElement); externalIdElement != null;
+                externalIdElement = Elements.nextSibling(externalIdElement)) {
             if (externalIdElement.getNodeName().equals("major")) {
                 majorName = externalIdElement.getTextContent().trim();
-
-                major = Major.getMajor(majorName);
             }
             else if (externalIdElement.getNodeName().equals("externalid")) {
                 externalId = externalIdElement.getTextContent().trim();
             }
         }
 
+        return parseContentId(majorName, externalId);
+    }
+
+    /**
+     * @param majorName the trimmed text of the last <code>major</code> child
+     *        of the element or null if there was none.
+     * @param externalId the trimmed text of the last <code>externalid</code>
+     *        child of the element or null if there was none.
+     * @return the content ID or null if the external ID is missing.
+     */
+    protected ParsedContentId parseContentId(String majorName, String externalId)
+    {
+        Major major = majorName != null ? Major.getMajor(majorName) : null;
+
         if (externalId != null && !externalId.equals("")) {
             if (major == Major.UNKNOWN) {
                 logger.log(Level.SEVERE, "The major \"" + majorName +
@@ -57,41 +75,103 @@ public abstract class AbstractParser
         }
     }
 
+    /**
+     * Reports the content ID of the element and of all elements below it as
+     * references, children before their parents. Rather than looking for
+     * major and externalid children below every element, the elements are
+     * walked once and only major and externalid elements are read, passing
+     * their text on to their parent.
+     */
     protected void findContentReferences(ParseContext context, Element content)
     {
-        for (Element child : children(content)) {
-            findContentReferences(context, child);
-        }
+        Element element = content;
+        int depth = 0;
+
+        clearContentIdParts(depth);
+
+        while (true) {
+            Element child;
+
+            while ((child = Elements.firstChild(element)) != null) {
+                element = child;
+                clearContentIdParts(++depth);
+            }
+
+            // visit the element, whose children have all been visited.
+            while (true) {
+                String externalId = externalIds[depth];
+
+                if (externalId != null) {
+                    ParsedContentId contentReference = parseContentId(majorNames[depth], externalId);
+
+                    if (contentReference != null) {
+                        callback.contentReferenceFound(context,
+                            contentReference.getMajor(), contentReference.getExternalId());
+                    }
+                }
+
+                if (element == content) {
+                    return;
+                }
 
-        ParsedContentId contentReference = parseContentId(content);
+                String name = element.getNodeName();
 
-        if (contentReference != null) {
-            callback.contentReferenceFound(context,
-                contentReference.getMajor(), contentReference.getExternalId());
+                if (name.equals("major")) {
+                    majorNames[depth - 1] = element.getTextContent().trim();
+                }
+                else if (name.equals("externalid")) {
+                    externalIds[depth - 1] = element.getTextContent().trim();
+                }
+
+                Element sibling = Elements.nextSibling(element);
+
+                if (sibling != null) {
+                    element = sibling;
+                    clearContentIdParts(depth);
+                    break;
+                }
+
+                element = (Element) element.getParentNode();
+                depth--;
+            }
         }
     }
 
-    protected Iterable<Element> children(Element element)
+    private void clearContentIdParts(int depth)
     {
-        final NodeList metadataChildren = element.getChildNodes();
+        if (depth == externalIds.length) {
+            majorNames = Arrays.copyOf(majorNames, depth * 2);
+            externalIds = Arrays.copyOf(externalIds, depth * 2);
+        }
+
+        majorNames[depth] = null;
+        externalIds[depth] = null;
+    }
 
+    protected Iterable<Element> children(final Element element)
+    {
         return new Iterable<Element>() {
             public Iterator<Element> iterator() {
-                return new FetchingIterator<Element>() {
-                    int j = 0;
-
-                    @Override
-                    protected Element fetch() {
-                        if (j < metadataChildren.getLength()) {
-                            try {
-                                return CheckedCast.cast(metadataChildren.item(j++), Element.class);
-                            } catch (CheckedClassCastException e) {
-                                return fetch();
-                            }
-                        }
-                        else {
-                            return null;
+                return new Iterator<Element>() {
+                    Element next = Elements.firstChild(element);
+
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    public Element next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
                         }
+
+                        Element result = next;
+                        next = Elements.nextSibling(next);
+
+                        return result;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
                     }};
             }
         };
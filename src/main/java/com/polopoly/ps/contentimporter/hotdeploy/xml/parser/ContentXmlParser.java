@@ -7,7 +7,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.w3c.dom.Document;
@@ -16,6 +15,7 @@ import org.xml.sax.SAXException;
 
 import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
 import com.polopoly.ps.contentimporter.hotdeploy.file.FileDeploymentFile;
+import com.polopoly.ps.contentimporter.hotdeploy.util.XmlParserPool;
 
 public class ContentXmlParser
     implements DeploymentFileParser
@@ -36,12 +36,12 @@ public class ContentXmlParser
 	                  final ParseCallback callback)
 	{
 		InputStream inputStream = null;
+		DocumentBuilder builder = null;
 
 		try {
 			inputStream = file.getInputStream();
 
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder builder = factory.newDocumentBuilder();
+			builder = XmlParserPool.acquireDocumentBuilder(false);
 			Document document = builder.parse(inputStream);
 
 			Element root = document.getDocumentElement();
@@ -68,6 +68,10 @@ public class ContentXmlParser
 		} catch (IOException e) {
 			handleException(file, e);
 		} finally {
+			if (builder != null) {
+				XmlParserPool.release(builder);
+			}
+
 			if (inputStream != null) {
 				try {
 					inputStream.close();
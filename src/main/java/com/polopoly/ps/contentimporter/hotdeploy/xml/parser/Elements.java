@@ -0,0 +1,52 @@
+package com.polopoly.ps.contentimporter.hotdeploy.xml.parser;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Walks the child elements of DOM nodes by node type, skipping the text,
+ * comment and other nodes between them. To be used as
+ *
+ * <pre>
+ * for (Element child = Elements.firstChild(parent); child != null; child = Elements.nextSibling(child)) {
+ * </pre>
+ */
+final class Elements
+{
+    private Elements()
+    {
+    }
+
+    /**
+     * @return the first child of the node that is an element or null if
+     *         there is none.
+     */
+    static Element firstChild(final Node node)
+    {
+        return element(node.getFirstChild());
+    }
+
+    /**
+     * @return the first sibling following the node that is an element or
+     *         null if there is none.
+     */
+    static Element nextSibling(final Node node)
+    {
+        return element(node.getNextSibling());
+    }
+
+    /**
+     * @return the node or its first following sibling that is an element,
+     *         or null if there is none.
+     */
+    private static Element element(final Node node)
+    {
+        Node sibling = node;
+
+        while (sibling != null && sibling.getNodeType() != Node.ELEMENT_NODE) {
+            sibling = sibling.getNextSibling();
+        }
+
+        return (Element) sibling;
+    }
+}
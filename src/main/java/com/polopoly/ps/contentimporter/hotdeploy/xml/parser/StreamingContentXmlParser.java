@@ -0,0 +1,695 @@
+package com.polopoly.ps.contentimporter.hotdeploy.xml.parser;
+
+import static com.polopoly.ps.contentimporter.hotdeploy.client.Major.INPUT_TEMPLATE;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.polopoly.ps.contentimporter.hotdeploy.client.Major;
+import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
+import com.polopoly.ps.contentimporter.hotdeploy.file.FileDeploymentFile;
+import com.polopoly.ps.contentimporter.hotdeploy.util.XmlParserPool;
+
+/**
+ * Parses deployment files like {@link ContentXmlParser}, but in one forward
+ * pass over a StAX stream rather than by building a DOM document of the whole
+ * file, so that the memory used does not grow with the size of the file.
+ *
+ * The callbacks are made in the same order and with the same arguments as by
+ * {@link XmlIoParser} and {@link TemplateDefinitionParser}. The callbacks for
+ * an input template are held until the end of its definition, since its
+ * content list wrapper and layout are reported before any of its fields. The
+ * differences are that the contexts have no XML element, and that callbacks
+ * for the part of a file that is not well-formed before the error have already
+ * been made when the error is found.
+ */
+public class StreamingContentXmlParser
+    implements DeploymentFileParser
+{
+    private static final Logger logger = Logger.getLogger(StreamingContentXmlParser.class.getName());
+
+    public StreamingContentXmlParser()
+    {
+    }
+
+    private void handleException(final DeploymentFile file,
+                                 final Exception e)
+    {
+        logger.log(Level.WARNING, "While parsing " + file + ": " + e.getMessage(), e);
+    }
+
+    public void parse(final DeploymentFile file,
+                      final ParseCallback callback)
+    {
+        InputStream inputStream = null;
+        XMLStreamReader reader = null;
+
+        try {
+            inputStream = file.getInputStream();
+
+            // element and attribute names are matched as the DOM parser sees them, prefix included.
+            reader = XmlParserPool.getInputFactory().createXMLStreamReader(inputStream);
+
+            new FileParser(file, callback, reader).parse();
+        } catch (FileNotFoundException e) {
+            handleException(file, e);
+        } catch (XMLStreamException e) {
+            handleException(file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    logger.log(Level.WARNING, e.getMessage(), e);
+                }
+            }
+
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * What an element means to the parser, given its name and its parent.
+     */
+    private enum Role
+    {
+        BATCH,
+        CONTENT,
+        METADATA,
+        METADATA_INPUT_TEMPLATE,
+        METADATA_CONTENT_ID,
+        METADATA_SECURITY_PARENT,
+        /** any element below a content or output template that may be a reference. */
+        REFERENCES,
+        TEMPLATE_DEFINITION,
+        INPUT_TEMPLATE,
+        OUTPUT_TEMPLATE,
+        FIELD,
+        CONTENT_LIST,
+        CLASS,
+        OUTPUT_TEMPLATE_IDS,
+        OUTPUT_TEMPLATE_ID,
+        ID_PARAM,
+        ID_PARAM_LIST,
+        ID_PARAM_LIST_ITEM,
+        PARAM,
+        /** an element with no callbacks of its own, other than as a reference of an input template. */
+        OTHER
+    }
+
+    /**
+     * A callback for an input template, held until the end of the template.
+     */
+    private static class Event
+    {
+        private enum Type
+        {
+            CONTENT_ID,
+            REFERENCE,
+            CLASS,
+            WARNING
+        }
+
+        private final Type type;
+        private final Major major;
+        private final String majorName;
+        private final String value;
+
+        private Event(final Type type,
+                      final Major major,
+                      final String majorName,
+                      final String value)
+        {
+            this.type = type;
+            this.major = major;
+            this.majorName = majorName;
+            this.value = value;
+        }
+
+        /**
+         * A reference to the content ID of an element, which is only
+         * checked when the callback is made, as the DOM parser would.
+         */
+        static Event contentId(final String majorName,
+                               final String externalId)
+        {
+            return new Event(Type.CONTENT_ID, null, majorName, externalId);
+        }
+
+        static Event reference(final Major major,
+                               final String externalId)
+        {
+            return new Event(Type.REFERENCE, major, null, externalId);
+        }
+
+        static Event classReference(final String className)
+        {
+            return new Event(Type.CLASS, null, null, className);
+        }
+
+        static Event warning(final String message)
+        {
+            return new Event(Type.WARNING, null, null, message);
+        }
+    }
+
+    private static class OpenElement
+    {
+        private final String name;
+        private final Role role;
+        private final OpenElement parent;
+
+        /**
+         * The input template the element is part of, or null.
+         */
+        private final OpenElement template;
+
+        private ParseContext context;
+
+        /**
+         * The text content of the element, if needed.
+         */
+        private StringBuilder text;
+
+        /**
+         * The text of the last major and externalid children.
+         */
+        private String majorName;
+        private String externalId;
+
+        // of a metadata element.
+        private ParsedContentId contentId;
+        private ParsedContentId securityParentId;
+        private String inputTemplate;
+
+        // of an input template, or of a field or parameter.
+        private String attributeName;
+        private String contentListWrapperClass;
+        private String layoutClass;
+        private List<Event> templateEvents;
+        private List<Event> referenceEvents;
+
+        // of a field.
+        private Event fieldStart;
+        private List<Event> fieldEvents;
+
+        private OpenElement(final String name,
+                            final Role role,
+                            final OpenElement parent)
+        {
+            this.name = name;
+            this.role = role;
+            this.parent = parent;
+
+            if (role == Role.INPUT_TEMPLATE) {
+                template = this;
+            } else {
+                template = parent != null ? parent.template : null;
+            }
+
+            if (parent != null && parent.context != null) {
+                context = parent.context;
+            }
+        }
+    }
+
+    /**
+     * The state of parsing a single file.
+     */
+    private static class FileParser
+        extends AbstractParser
+    {
+        private final XMLStreamReader reader;
+
+        private OpenElement current;
+
+        /**
+         * The number of open elements whose text is collected.
+         */
+        private int textElements;
+
+        FileParser(final DeploymentFile file,
+                   final ParseCallback callback,
+                   final XMLStreamReader reader)
+        {
+            super(file, callback);
+
+            this.reader = reader;
+        }
+
+        void parse()
+            throws XMLStreamException
+        {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (!startElement()) {
+                        return;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (textElements > 0) {
+                        appendText();
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @return false if the file is of an unknown type.
+         */
+        private boolean startElement()
+            throws XMLStreamException
+        {
+            String name = reader.getLocalName();
+            Role role;
+
+            if (current == null) {
+                if (name.equals("template-definition")) {
+                    if (file instanceof FileDeploymentFile) {
+                        ((FileDeploymentFile) file).setIsTemplateDefinitionFile(true);
+                    }
+
+                    role = Role.TEMPLATE_DEFINITION;
+                } else if (name.equals("batch")) {
+                    role = Role.BATCH;
+                } else {
+                    logger.log(Level.WARNING, "File " + file + " was of unknown type.");
+                    return false;
+                }
+            } else {
+                role = childRole(current, name);
+
+                if (role == null) {
+                    skipElement();
+                    return true;
+                }
+            }
+
+            OpenElement element = new OpenElement(name, role, current);
+            current = element;
+
+            if (name.equals("major") || name.equals("externalid") || isTextNeeded(element)) {
+                element.text = new StringBuilder();
+                textElements++;
+            }
+
+            switch (role) {
+            case CONTENT:
+                element.context = new ParseContext(file);
+                break;
+            case INPUT_TEMPLATE:
+                element.context = new ParseContext(file);
+                element.attributeName = attribute("name");
+                element.templateEvents = new ArrayList<Event>();
+                element.referenceEvents = new ArrayList<Event>();
+                break;
+            case OUTPUT_TEMPLATE:
+                element.context = new ParseContext(file);
+                startOutputTemplate(element);
+                break;
+            case FIELD:
+                startField(element);
+                break;
+            case CONTENT_LIST:
+                String templateName = reader.getAttributeValue(null, "input-template");
+
+                if (templateName != null && !templateName.equals("")) {
+                    element.parent.templateEvents.add(Event.reference(INPUT_TEMPLATE, templateName));
+                }
+                break;
+            case PARAM:
+                element.attributeName = attribute("name");
+                break;
+            default:
+                break;
+            }
+
+            return true;
+        }
+
+        /**
+         * @return the role of the element or null if the element and its
+         *         children can be skipped.
+         */
+        private Role childRole(final OpenElement parent,
+                               final String name)
+        {
+            switch (parent.role) {
+            case BATCH:
+                if (name.equals("content")) {
+                    return Role.CONTENT;
+                } else if (name.equals("batch")) {
+                    return Role.BATCH;
+                }
+
+                logger.log(Level.WARNING, "Unexpected tag " + name +
+                                          " in " + file + ". Expected \"content\" or \"batch\".");
+                return null;
+            case CONTENT:
+                return name.equals("metadata") ? Role.METADATA : Role.REFERENCES;
+            case METADATA:
+                if (name.equals("input-template")) {
+                    return Role.METADATA_INPUT_TEMPLATE;
+                } else if (name.equals("contentid")) {
+                    return Role.METADATA_CONTENT_ID;
+                } else if (name.equals("security-parent")) {
+                    return Role.METADATA_SECURITY_PARENT;
+                }
+
+                return null;
+            case REFERENCES:
+            case OUTPUT_TEMPLATE:
+                return Role.REFERENCES;
+            case TEMPLATE_DEFINITION:
+                if (name.equals("input-template")) {
+                    return Role.INPUT_TEMPLATE;
+                } else if (name.equals("output-template")) {
+                    return Role.OUTPUT_TEMPLATE;
+                }
+
+                return null;
+            case INPUT_TEMPLATE:
+            case FIELD:
+                return templateChildRole(parent, name);
+            case OUTPUT_TEMPLATE_IDS:
+                return name.equals("id") ? Role.OUTPUT_TEMPLATE_ID : Role.OTHER;
+            case ID_PARAM_LIST:
+                return Role.ID_PARAM_LIST_ITEM;
+            default:
+                return Role.OTHER;
+            }
+        }
+
+        /**
+         * @return the role of a child of an input template, field or layout,
+         *         as in TemplateDefinitionParser.parseTemplate and, for
+         *         fields, parseFieldOrLayout.
+         */
+        private Role templateChildRole(final OpenElement parent,
+                                       final String name)
+        {
+            if (name.equals("content-list")) {
+                return Role.CONTENT_LIST;
+            } else if (name.equals("policy") || name.equals("viewer") || name.equals("editor") ||
+                       name.equals("content-list-wrapper")) {
+                return Role.CLASS;
+            } else if (name.equals("layout") || name.equals("field")) {
+                return Role.FIELD;
+            } else if (name.equals("output-templates")) {
+                return Role.OUTPUT_TEMPLATE_IDS;
+            } else if (name.equals("idparam")) {
+                return Role.ID_PARAM;
+            } else if (name.equals("idparam-list")) {
+                return Role.ID_PARAM_LIST;
+            } else if (name.equals("param") && parent.role == Role.FIELD) {
+                return Role.PARAM;
+            }
+
+            return Role.OTHER;
+        }
+
+        private boolean isTextNeeded(final OpenElement element)
+        {
+            switch (element.role) {
+            case CLASS:
+            case OUTPUT_TEMPLATE_ID:
+            case PARAM:
+                return true;
+            default:
+                return element.parent != null && element.parent.role == Role.INPUT_TEMPLATE &&
+                       element.name.equals("layoutClass");
+            }
+        }
+
+        private void startOutputTemplate(final OpenElement outputTemplate)
+        {
+            String inputTemplate = attribute("input-template").trim();
+            String name = attribute("name").trim();
+
+            callback.contentFound(outputTemplate.context, name, Major.OUTPUT_TEMPLATE, inputTemplate);
+
+            String policy = attribute("policy").trim();
+
+            if (!policy.equals("")) {
+                callback.classReferenceFound(file, policy);
+            }
+
+            // it is apparently possible and legal for output templates not to have an input template.
+            if (!inputTemplate.equals("")) {
+                callback.contentReferenceFound(outputTemplate.context, INPUT_TEMPLATE, inputTemplate);
+            }
+        }
+
+        private void startField(final OpenElement field)
+        {
+            String fieldTemplate = attribute("input-template");
+
+            if (fieldTemplate.equals("")) {
+                field.fieldStart = Event.warning("The field " + attribute("name") +
+                                                 " in " + file + " has no input template.");
+            } else {
+                field.fieldStart = Event.reference(INPUT_TEMPLATE, fieldTemplate);
+            }
+
+            field.fieldEvents = new ArrayList<Event>();
+            field.templateEvents = new ArrayList<Event>();
+        }
+
+        private void endElement()
+        {
+            OpenElement element = current;
+            OpenElement parent = element.parent;
+            String text = null;
+
+            if (element.text != null) {
+                text = element.text.toString().trim();
+                textElements--;
+            }
+
+            if (parent != null) {
+                if (element.name.equals("major")) {
+                    parent.majorName = text;
+                } else if (element.name.equals("externalid")) {
+                    parent.externalId = text;
+                }
+            }
+
+            if (element.template != null && element.externalId != null && !element.externalId.equals("")) {
+                element.template.referenceEvents.add(Event.contentId(element.majorName, element.externalId));
+            }
+
+            switch (element.role) {
+            case METADATA:
+                endMetadata(element);
+                break;
+            case METADATA_INPUT_TEMPLATE:
+                if (element.externalId != null) {
+                    parent.inputTemplate = element.externalId;
+                }
+                break;
+            case METADATA_CONTENT_ID:
+                parent.contentId = parseContentId(element.majorName, element.externalId);
+                break;
+            case METADATA_SECURITY_PARENT:
+                parent.securityParentId = parseContentId(element.majorName, element.externalId);
+                break;
+            case REFERENCES:
+            case OUTPUT_TEMPLATE:
+                ParsedContentId contentReference = parseContentId(element.majorName, element.externalId);
+
+                if (contentReference != null) {
+                    callback.contentReferenceFound(element.context,
+                        contentReference.getMajor(), contentReference.getExternalId());
+                }
+                break;
+            case INPUT_TEMPLATE:
+                endInputTemplate(element);
+                break;
+            case FIELD:
+                parent.templateEvents.add(element.fieldStart);
+                parent.templateEvents.addAll(element.fieldEvents);
+                parent.templateEvents.addAll(element.templateEvents);
+                break;
+            case CLASS:
+                parent.templateEvents.add(Event.classReference(text));
+
+                if (parent.role == Role.INPUT_TEMPLATE && element.name.equals("content-list-wrapper") &&
+                        parent.contentListWrapperClass == null) {
+                    parent.contentListWrapperClass = text;
+                }
+                break;
+            case OUTPUT_TEMPLATE_ID:
+                parent.parent.templateEvents.add(Event.reference(Major.OUTPUT_TEMPLATE, text));
+                break;
+            case ID_PARAM:
+                addIdParam(parent, element);
+                break;
+            case ID_PARAM_LIST_ITEM:
+                addIdParam(parent.parent, element);
+                break;
+            case PARAM:
+                if (element.attributeName.equals("inputTemplateId")) {
+                    parent.fieldEvents.add(Event.reference(INPUT_TEMPLATE, text));
+                } else if (element.attributeName.endsWith(".class")) {
+                    parent.fieldEvents.add(Event.classReference(text));
+                }
+                break;
+            default:
+                if (parent != null && parent.role == Role.INPUT_TEMPLATE && element.name.equals("layoutClass") &&
+                        parent.layoutClass == null) {
+                    parent.layoutClass = text;
+                }
+                break;
+            }
+
+            current = parent;
+        }
+
+        /**
+         * An idparam is a reference of both the parameters and the template
+         * of a field.
+         */
+        private void addIdParam(final OpenElement scope,
+                                final OpenElement idParam)
+        {
+            Event event = Event.contentId(idParam.majorName, idParam.externalId);
+
+            if (scope.role == Role.FIELD) {
+                scope.fieldEvents.add(event);
+            }
+
+            scope.templateEvents.add(event);
+        }
+
+        private void endMetadata(final OpenElement metadata)
+        {
+            ParsedContentId contentId = metadata.contentId;
+
+            if (contentId != null) {
+                Major major = contentId.getMajor();
+
+                // objects can only be created if the major is specified.
+                if (major == Major.UNKNOWN) {
+                    callback.contentReferenceFound(metadata.context, contentId.getMajor(), contentId.getExternalId());
+                } else if (contentId.getExternalId() != null) {
+                    callback.contentFound(metadata.context,
+                            contentId.getExternalId(), major, metadata.inputTemplate);
+                }
+            }
+
+            if (metadata.securityParentId != null) {
+                callback.contentReferenceFound(metadata.context,
+                    metadata.securityParentId.getMajor(), metadata.securityParentId.getExternalId());
+            }
+
+            if (metadata.inputTemplate != null) {
+                callback.contentReferenceFound(metadata.context, Major.INPUT_TEMPLATE, metadata.inputTemplate);
+            }
+        }
+
+        private void endInputTemplate(final OpenElement inputTemplate)
+        {
+            ParseContext context = inputTemplate.context;
+            String name = inputTemplate.attributeName;
+
+            callback.contentFound(context, name, INPUT_TEMPLATE, null);
+
+            if (inputTemplate.contentListWrapperClass != null && callback instanceof ContentListWrapperAwareParseCallback) {
+                ((ContentListWrapperAwareParseCallback) callback).contentListWrapperFound(
+                    context, name, inputTemplate.contentListWrapperClass);
+            }
+
+            if (inputTemplate.layoutClass != null && callback instanceof LayoutAwareParseCallback) {
+                ((LayoutAwareParseCallback) callback).layoutFound(context, name, inputTemplate.layoutClass);
+            }
+
+            replay(context, inputTemplate.templateEvents);
+            replay(context, inputTemplate.referenceEvents);
+        }
+
+        private void replay(final ParseContext context,
+                            final List<Event> events)
+        {
+            for (Event event : events) {
+                switch (event.type) {
+                case CONTENT_ID:
+                    ParsedContentId contentId = parseContentId(event.majorName, event.value);
+
+                    if (contentId != null) {
+                        callback.contentReferenceFound(context, contentId.getMajor(), contentId.getExternalId());
+                    }
+                    break;
+                case REFERENCE:
+                    callback.contentReferenceFound(context, event.major, event.value);
+                    break;
+                case CLASS:
+                    callback.classReferenceFound(file, event.value);
+                    break;
+                case WARNING:
+                    logger.log(Level.WARNING, event.value);
+                    break;
+                }
+            }
+        }
+
+        private void appendText()
+        {
+            for (OpenElement element = current; element != null; element = element.parent) {
+                if (element.text != null) {
+                    element.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        }
+
+        /**
+         * @return the attribute of the current element or an empty string,
+         *         as returned by Element.getAttribute.
+         */
+        private String attribute(final String name)
+        {
+            String value = reader.getAttributeValue(null, name);
+
+            return value != null ? value : "";
+        }
+
+        private void skipElement()
+            throws XMLStreamException
+        {
+            int depth = 1;
+
+            while (depth > 0) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        }
+    }
+}
@@ -8,12 +8,9 @@ import java.util.logging.Logger;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import com.polopoly.ps.contentimporter.hotdeploy.client.Major;
 import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
-import com.polopoly.ps.contentimporter.hotdeploy.util.CheckedCast;
-import com.polopoly.ps.contentimporter.hotdeploy.util.CheckedClassCastException;
 
 public class TemplateDefinitionParser
     extends AbstractParser
@@ -24,7 +21,8 @@ public class TemplateDefinitionParser
     {
         super(file, callback);
 
-        for (Element inputTemplate : children(root)) {
+        for (Element inputTemplate = Elements.firstChild(root); inputTemplate != null;
+                inputTemplate = Elements.nextSibling(inputTemplate)) {
             if (inputTemplate.getNodeName().equals("input-template")) {
                 parseInputTemplate(inputTemplate);
             }
@@ -92,7 +90,7 @@ public class TemplateDefinitionParser
 
     private String findContentListWrapperClass(ParseContext context, Element inputTemplate)
     {
-        for (Element field : children(inputTemplate)) {
+        for (Element field = Elements.firstChild(inputTemplate); field != null; field = Elements.nextSibling(field)) {
             String nodeName = field.getNodeName();
 
             if (nodeName.equals("content-list-wrapper")) {
@@ -105,7 +103,7 @@ public class TemplateDefinitionParser
 
     private String findLayoutClass(ParseContext context, Element inputTemplate)
     {
-        for (Element field : children(inputTemplate)) {
+        for (Element field = Elements.firstChild(inputTemplate); field != null; field = Elements.nextSibling(field)) {
             String nodeName = field.getNodeName();
 
             if (nodeName.equals("layoutClass")) {
@@ -118,7 +116,7 @@ public class TemplateDefinitionParser
 
     private void parseTemplate(ParseContext context, Element inputTemplate, String name)
     {
-        for (Element field : children(inputTemplate)) {
+        for (Element field = Elements.firstChild(inputTemplate); field != null; field = Elements.nextSibling(field)) {
             String nodeName = field.getNodeName();
 
             if (nodeName.equals("content-list")) {
@@ -136,7 +134,8 @@ public class TemplateDefinitionParser
                 callback.classReferenceFound(file, wrapperClass);
             }
             else if (nodeName.equals("output-templates")) {
-                for (Element templateId : children(field)) {
+                for (Element templateId = Elements.firstChild(field); templateId != null;
+                        templateId = Elements.nextSibling(templateId)) {
                     if (templateId.getNodeName().equals("id")) {
                         callback.contentReferenceFound(context, Major.OUTPUT_TEMPLATE, templateId.getTextContent().trim());
                     }
@@ -146,7 +145,7 @@ public class TemplateDefinitionParser
                 parseContentIdReference(context, field);
             }
             else if (nodeName.equals("idparam-list")) {
-                for (Element id : children(field)) {
+                for (Element id = Elements.firstChild(field); id != null; id = Elements.nextSibling(id)) {
                     parseContentIdReference(context, id);
                 }
             }
@@ -165,7 +164,7 @@ public class TemplateDefinitionParser
             callback.contentReferenceFound(context, INPUT_TEMPLATE, fieldTemplate);
         }
 
-        for (Element param : children(field)) {
+        for (Element param = Elements.firstChild(field); param != null; param = Elements.nextSibling(param)) {
             if (param.getNodeName().equals("param")) {
                 String paramName = param.getAttribute("name");
 
@@ -177,16 +176,8 @@ public class TemplateDefinitionParser
                 }
             }
             else if (param.getNodeName().equals("idparam-list")) {
-                NodeList ids = param.getChildNodes();
-
-                for (int k = 0; k < ids.getLength(); k++) {
-                    try {
-                        Element id = CheckedCast.cast(ids.item(k), Element.class);
-
-                        parseContentIdReference(context, id);
-                    }
-                    catch (CheckedClassCastException e) {
-                    }
+                for (Element id = Elements.firstChild(param); id != null; id = Elements.nextSibling(id)) {
+                    parseContentIdReference(context, id);
                 }
             }
             else if (param.getNodeName().equals("idparam")) {
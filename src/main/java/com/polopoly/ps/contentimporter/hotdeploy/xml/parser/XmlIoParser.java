@@ -23,7 +23,8 @@ public class XmlIoParser
 
     private void parseBatch(final Element contentElement)
     {
-        for (Element content : children(contentElement)) {
+        for (Element content = Elements.firstChild(contentElement); content != null;
+                content = Elements.nextSibling(content)) {
             if (content.getNodeName().equals("content")) {
                 parseContent(content);
             } else if (content.getNodeName().equals("batch")) {
@@ -39,7 +40,8 @@ public class XmlIoParser
     {
         ParseContext context = new ParseContext(file, contentElement);
 
-        for (Element element : children(contentElement)) {
+        for (Element element = Elements.firstChild(contentElement); element != null;
+                element = Elements.nextSibling(element)) {
             if (element.getNodeName().equals("metadata")) {
                 parseMetadata(context, element);
             } else {
@@ -55,11 +57,13 @@ public class XmlIoParser
         String inputTemplate = null;
         ParsedContentId securityParentId = null;
 
-        for (Element metadataChild : children(metadata)) {
+        for (Element metadataChild = Elements.firstChild(metadata); metadataChild != null;
+                metadataChild = Elements.nextSibling(metadataChild)) {
             String nodeName = metadataChild.getNodeName();
 
             if (nodeName.equals("input-template")) {
-                for (Element inputTemplateElement : children(metadataChild)) {
+                for (Element inputTemplateElement = Elements.firstChild(metadataChild); inputTemplateElement != null;
+                        inputTemplateElement = Elements.nextSibling(inputTemplateElement)) {
                     if (inputTemplateElement.getNodeName().equals("externalid")) {
                         inputTemplate = inputTemplateElement.getTextContent().trim();
                     }
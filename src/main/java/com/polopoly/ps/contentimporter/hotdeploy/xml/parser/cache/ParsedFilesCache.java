@@ -1,16 +1,21 @@
 package com.polopoly.ps.contentimporter.hotdeploy.xml.parser.cache;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
 import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.DeploymentFileParser;
 import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.ParseCallback;
 
+/**
+ * Records the callbacks for every file parsed and replays them when the file
+ * is parsed again. The cache may be used by several threads at once; a file
+ * parsed by two threads at the same time is parsed twice.
+ */
 public class ParsedFilesCache {
     private DeploymentFileParser parser;
-    private Map<DeploymentFile, FileParseCallbackMemento> mementoByFile =
-        new HashMap<DeploymentFile, FileParseCallbackMemento>();
+    private ConcurrentMap<DeploymentFile, FileParseCallbackMemento> mementoByFile =
+        new ConcurrentHashMap<DeploymentFile, FileParseCallbackMemento>();
 
     public ParsedFilesCache(DeploymentFileParser parser) {
         this.parser = parser;
@@ -24,21 +29,13 @@ public class ParsedFilesCache {
             cachedMemento.replay(parseCallback);
         }
         else {
-            FileParseCallbackMemento newMemento = getFileMemento(file);
+            FileParseCallbackMemento newMemento = new FileParseCallbackMemento(file);
 
             parser.parse(file, new ParseCallbackMultiplexer(parseCallback, newMemento));
-        }
-    }
 
-    private FileParseCallbackMemento getFileMemento(DeploymentFile file) {
-        FileParseCallbackMemento memento = mementoByFile.get(file);
-
-        if (memento == null) {
-            memento = new FileParseCallbackMemento(file);
-            mementoByFile.put(file, memento);
+            // only cached once complete, so that no other thread replays part of it.
+            mementoByFile.putIfAbsent(file, newMemento);
         }
-
-        return memento;
     }
 
 }
@@ -0,0 +1,164 @@
+package com.polopoly.ps.contentimporter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResourceResolverTest {
+
+    private static final String JAR = "/StandardContentImportHandlerTest.jar";
+
+    private ResourceResolver target;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void beforeTest() {
+        target = new ResourceResolver();
+    }
+
+    @After
+    public void afterTest() {
+        target.close();
+    }
+
+    @Test
+    public void shouldOpenExistingFile() throws Exception {
+        byte[] bytes = "file:image.jpg:image.jpg".getBytes("UTF-8");
+        File file = write("existing.content", bytes);
+
+        ResourceResolver.Resource resource = target.open(file.toURI().toURL());
+
+        try {
+            assertEquals(file, resource.getFile());
+            assertNull(resource.getJarFile());
+            assertEquals(bytes.length, resource.getLength());
+            assertEquals(file.lastModified(), resource.getLastModified());
+            assertEquals(-1, resource.getChecksum());
+            assertArrayEquals(bytes, resource.readBytes());
+        } finally {
+            resource.close();
+        }
+
+        assertTrue(target.exists(file.toURI().toURL()));
+    }
+
+    @Test
+    public void shouldNotOpenMissingFile() throws Exception {
+        URL url = new File(temporaryFolder.getRoot(), "missing.content").toURI().toURL();
+
+        try {
+            target.open(url);
+            fail("A missing file was opened.");
+        } catch (FileNotFoundException e) {
+            // expected.
+        }
+
+        assertFalse(target.exists(url));
+        assertFalse(target.exists(temporaryFolder.getRoot().toURI().toURL()));
+    }
+
+    @Test
+    public void shouldOpenExistingJarEntry() throws Exception {
+        ResourceResolver.Resource resource = target.open(jarEntry("afile.content"));
+
+        try {
+            assertNull(resource.getFile());
+            assertNotNull(resource.getJarFile());
+            assertEquals(52, resource.getLength());
+            assertTrue(resource.getChecksum() != -1);
+            assertEquals(52, resource.readBytes().length);
+        } finally {
+            resource.close();
+        }
+
+        assertTrue(target.exists(jarEntry("afile.xml")));
+    }
+
+    @Test
+    public void shouldNotOpenMissingJarEntry() throws Exception {
+        try {
+            target.open(jarEntry("missing.content"));
+            fail("A missing JAR entry was opened.");
+        } catch (FileNotFoundException e) {
+            // expected.
+        }
+
+        assertFalse(target.exists(jarEntry("missing.content")));
+        assertFalse(target.exists(jarEntry("META-INF/")));
+    }
+
+    @Test
+    public void shouldReuseJarFileAcrossEntries() throws Exception {
+        ResourceResolver.Resource content = target.open(jarEntry("afile.content"));
+        ResourceResolver.Resource xml = target.open(jarEntry("afile.xml"));
+
+        assertSame(content.getJarFile(), xml.getJarFile());
+
+        // reading one entry leaves the archive open for the other.
+        content.readBytes();
+        content.close();
+
+        assertEquals(281, xml.readBytes().length);
+        xml.close();
+
+        assertSame(content.getJarFile(), target.open(jarEntry("afile.content")).getJarFile());
+    }
+
+    @Test
+    public void closeShouldReleaseJarFiles() throws Exception {
+        ResourceResolver.Resource resource = target.open(jarEntry("afile.content"));
+
+        target.close();
+
+        try {
+            resource.getInputStream();
+            fail("The JAR file was still open after closing the resolver.");
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+
+        try {
+            target.open(jarEntry("afile.content"));
+            fail("A resource was opened after closing the resolver.");
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+    }
+
+    private URL jarEntry(String name) throws MalformedURLException {
+        return new URL("jar:" + getClass().getResource(JAR) + "!/" + name);
+    }
+
+    private File write(String name, byte[] bytes) throws Exception {
+        File file = temporaryFolder.newFile(name);
+        OutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+
+        return file;
+    }
+}
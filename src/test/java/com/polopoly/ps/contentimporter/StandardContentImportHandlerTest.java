@@ -7,6 +7,7 @@ import static org.mockito.Mockito.*;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.StringWriter;
@@ -17,18 +18,29 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.polopoly.cm.xml.DocumentImporter;
 import com.polopoly.ps.contentimporter.hotdeploy.text.TextContentParser;
 import com.polopoly.ps.contentimporter.hotdeploy.text.TextContentSet;
 import com.polopoly.ps.contentimporter.hotdeploy.text.TextContentXmlWriter;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xml.sax.SAXException;
 
 public class StandardContentImportHandlerTest {
 
@@ -36,6 +48,9 @@ public class StandardContentImportHandlerTest {
     private Logger LOGGER;
     private DocumentImporter documentImporter;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void beforeTest() {
         LOGGER = mock(Logger.class);
@@ -86,6 +101,22 @@ public class StandardContentImportHandlerTest {
                            String.format(StandardContentImportHandler.WARNING_RESOURCE_FILE_NOT_FOUND, filePath));
     }
 
+    @Test
+    public void shouldLogWarningIfResourceOfUnsupportedTypeNotFound() throws Exception {
+        URL resource = new File(temporaryFolder.getRoot(), "this-file-does-not-exist.txt").toURI().toURL();
+
+        Set<URL> resources = new HashSet<URL>();
+        resources.add(resource);
+        target.importContent(resources);
+
+        verify(LOGGER).log(Level.WARNING,
+                           String.format(StandardContentImportHandler.WARNING_RESOURCE_FILE_NOT_FOUND,
+                                         resource.toString()));
+        verify(LOGGER, never()).log(Level.WARNING,
+                                    String.format(StandardContentImportHandler.WARNING_RESOURCE_TYPE_NOT_SUPPORTED,
+                                                  resource.toString()));
+    }
+
     @Test
     public void shouldLogWarningIfFileTypeNotSupported() throws Exception {
 
@@ -161,6 +192,26 @@ public class StandardContentImportHandlerTest {
                            String.format(StandardContentImportHandler.INFO_CONTENT_IMPORT_SUCCEDED, filePath));
     }
 
+    @Test
+    public void shouldImportSpilledDotContentAsSameXML() throws Exception {
+        URL resourceURL = this.getClass().getResource("/StandardContentImportHandlerTest-imported.content");
+
+        InputStream inputStream = new FileInputStream(new File(resourceURL.getFile()));
+        TextContentSet textContentSet = new TextContentParser(inputStream, resourceURL, resourceURL.getFile()).parse();
+        StringWriter writer = new StringWriter();
+        TextContentXmlWriter contentXmlWriter = new TextContentXmlWriter(writer);
+        contentXmlWriter.write(textContentSet);
+        contentXmlWriter.close();
+
+        Set<URL> resources = new HashSet<URL>();
+        resources.add(resourceURL);
+
+        target.setContentSpillThreshold(0);
+        target.importContent(resources);
+
+        verify(documentImporter).importXML(writer.getBuffer().toString());
+    }
+
     @Test
     public void shouldImportDotXMLAsXML() throws Exception {
         String fileName = "StandardContentImportHandlerTest.xml";
@@ -229,6 +280,526 @@ public class StandardContentImportHandlerTest {
                      String.format(StandardContentImportHandler.INFO_CONTENT_IMPORT_SUCCEDED, filePath4));
     }
 
+    @Test
+    public void shouldImportInSequenceWhenConvertingInParallel() throws Exception {
+        target.setParallelism(4);
+        target.setQueueDepth(2);
+
+        LinkedHashSet<URL> resources = new LinkedHashSet<URL>();
+
+        for (int i = 0; i < 20; i++) {
+            File file = temporaryFolder.newFile("parallel-" + i + ".content");
+
+            FileWriter writer = new FileWriter(file);
+            writer.write("id:parallel-" + i + "\nmajor:Article\ninputtemplate:p.Article\nname:Parallel " + i + "\n");
+            writer.close();
+
+            resources.add(file.toURI().toURL());
+        }
+
+        target.importContentByImportOrder(resources);
+
+        InOrder inOrder = inOrder(documentImporter);
+
+        for (int i = 0; i < 20; i++) {
+            inOrder.verify(documentImporter).importXML(Matchers.contains("<externalid>parallel-" + i + "</externalid>"));
+        }
+    }
+
+    @Test
+    public void shouldReportQueueDepthOfWorkersUsed() throws Exception {
+        target.setParallelism(3);
+        assertEquals(6, target.getQueueDepth());
+
+        target.setDryRun(true);
+        assertEquals(2 * Math.max(3, Runtime.getRuntime().availableProcessors()), target.getQueueDepth());
+
+        target.setQueueDepth(5);
+        assertEquals(5, target.getQueueDepth());
+    }
+
+    @Test
+    public void shouldCoalesceResourcesIntoBatches() throws Exception {
+        target.setBatchMaxResources(3);
+
+        LinkedHashSet<URL> resources = new LinkedHashSet<URL>();
+
+        for (int i = 0; i < 4; i++) {
+            File file = temporaryFolder.newFile("coalesced-" + i + ".content");
+
+            FileWriter writer = new FileWriter(file);
+            writer.write("id:coalesced-" + i + "\nmajor:Article\ninputtemplate:p.Article\n");
+            writer.close();
+
+            resources.add(file.toURI().toURL());
+        }
+
+        File xmlFile = temporaryFolder.newFile("coalesced.xml");
+
+        FileWriter writer = new FileWriter(xmlFile);
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                     "<batch xmlns=\"http://www.polopoly.com/polopoly/cm/xmlio\">\n" +
+                     "  <content><metadata><contentid><externalid>coalesced-xml</externalid></contentid></metadata></content>\n" +
+                     "</batch>\n");
+        writer.close();
+
+        resources.add(xmlFile.toURI().toURL());
+
+        target.importContentByImportOrder(resources);
+
+        ArgumentCaptor<String> xml = ArgumentCaptor.forClass(String.class);
+        verify(documentImporter, times(2)).importXML(xml.capture());
+
+        String first = xml.getAllValues().get(0);
+        String second = xml.getAllValues().get(1);
+
+        assertEquals(1, first.split("<batch").length - 1);
+        Assert.assertTrue(first.indexOf("coalesced-0") < first.indexOf("coalesced-1"));
+        Assert.assertTrue(first.indexOf("coalesced-1") < first.indexOf("coalesced-2"));
+        Assert.assertTrue(second.indexOf("coalesced-3") < second.indexOf("coalesced-xml"));
+        Assert.assertTrue(second.startsWith("<?xml"));
+        Assert.assertTrue(second.endsWith("</batch>\n"));
+    }
+
+    @Test
+    public void shouldStreamSameXmlToStreamingSink() throws Exception {
+        LinkedHashSet<URL> resources = new LinkedHashSet<URL>();
+
+        for (int i = 0; i < 4; i++) {
+            File file = temporaryFolder.newFile("streamed-" + i + ".content");
+
+            FileWriter writer = new FileWriter(file);
+            writer.write("id:streamed-" + i + "\nmajor:Article\ninputtemplate:p.Article\n" +
+                         "component:title:value:R\u00e4ksm\u00f6rg\u00e5s \u2713\n");
+            writer.close();
+
+            resources.add(file.toURI().toURL());
+        }
+
+        resources.add(this.getClass().getResource("/StandardContentImportHandlerTest-imported.content"));
+
+        final List<String> streamed = new ArrayList<String>();
+
+        StandardContentImportHandler streamingTarget = new StandardContentImportHandler(new ImportSink() {
+            public boolean isStreaming() {
+                return true;
+            }
+
+            public void importXml(String xml) {
+                throw new AssertionError("Expected a stream.");
+            }
+
+            public void importXml(InputStream xml) throws Exception {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[100];
+                int read;
+
+                while ((read = xml.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, read);
+                }
+
+                streamed.add(bytes.toString("UTF-8"));
+            }
+        });
+
+        target.setBatchMaxResources(3);
+        streamingTarget.setBatchMaxResources(3);
+
+        target.importContentByImportOrder(resources);
+        streamingTarget.importContentByImportOrder(resources);
+
+        ArgumentCaptor<String> xml = ArgumentCaptor.forClass(String.class);
+        verify(documentImporter, times(2)).importXML(xml.capture());
+
+        assertEquals(xml.getAllValues(), streamed);
+    }
+
+    @Test
+    public void shouldImportLargeContentAsSeveralDocuments() throws Exception {
+        File file = temporaryFolder.newFile("split.content");
+
+        FileWriter writer = new FileWriter(file);
+
+        for (int i = 0; i < 3; i++) {
+            writer.write("id:split-" + i + "\nmajor:Article\ninputtemplate:p.Article\n" +
+                         "ref:related:item:split-" + ((i + 1) % 3) + "\n\n");
+        }
+
+        writer.close();
+
+        Set<URL> resources = new HashSet<URL>();
+        resources.add(file.toURI().toURL());
+
+        target.setContentDocumentMaxObjects(2);
+        target.importContent(resources);
+
+        ArgumentCaptor<String> xml = ArgumentCaptor.forClass(String.class);
+        verify(documentImporter, times(4)).importXML(xml.capture());
+
+        for (String document : xml.getAllValues()) {
+            Assert.assertTrue(document.startsWith("<?xml"));
+            Assert.assertTrue(document.endsWith("</batch>\n"));
+        }
+
+        // the bootstrap definitions of all objects come before any reference to them.
+        Assert.assertFalse(xml.getAllValues().get(1).contains("contentref"));
+        Assert.assertTrue(xml.getAllValues().get(2).contains("contentref"));
+        verify(LOGGER).log(Level.INFO, String.format(StandardContentImportHandler.INFO_CONTENT_IMPORT_SUCCEDED,
+                                                     file.getPath()));
+    }
+
+    @Test
+    public void shouldImportEachDocumentBeforeWritingTheNext() throws Exception {
+        final File attachment = temporaryFolder.newFile("attachment.bin");
+        writeFile(attachment, "buffered");
+
+        File file = temporaryFolder.newFile("split.content");
+
+        FileWriter writer = new FileWriter(file);
+
+        for (int i = 0; i < 3; i++) {
+            writer.write("id:split-" + i + "\nmajor:Article\ninputtemplate:p.Article\n" +
+                         (i == 2 ? "file:attachment.bin:attachment.bin\n" : "") + "\n");
+        }
+
+        writer.close();
+
+        // the attachment is read when the last document is written, which must be after the first is imported.
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                writeFile(attachment, "imported");
+                return null;
+            }
+        }).when(documentImporter).importXML(anyString());
+
+        Set<URL> resources = new HashSet<URL>();
+        resources.add(file.toURI().toURL());
+
+        target.setContentDocumentMaxObjects(2);
+        target.setParallelism(2);
+        target.importContent(resources);
+
+        ArgumentCaptor<String> xml = ArgumentCaptor.forClass(String.class);
+        verify(documentImporter, times(4)).importXML(xml.capture());
+
+        // "imported" in Base64.
+        Assert.assertTrue(xml.getAllValues().get(3).contains("aW1wb3J0ZWQ="));
+    }
+
+    @Test
+    public void shouldNameResourcesOfFailedBatch() throws Exception {
+        target.setBatchMaxResources(10);
+
+        LinkedHashSet<URL> resources = new LinkedHashSet<URL>();
+        resources.add(this.getClass().getResource("/StandardContentImportHandlerTest-imported.content"));
+        resources.add(this.getClass().getResource("/anotherfile.content"));
+
+        doThrow(new Exception("Exception")).when(documentImporter).importXML(anyString());
+
+        try {
+            target.importContentByImportOrder(resources);
+            Assert.fail("Expected the import to fail");
+        } catch (ContentImportHandlerException e) {
+            Assert.assertTrue(e.getMessage().contains("StandardContentImportHandlerTest-imported.content"));
+            Assert.assertTrue(e.getMessage().contains("anotherfile.content"));
+        }
+    }
+
+    @Test
+    public void shouldFailMalformedXmlWhenBatching() throws Exception {
+        target.setBatchMaxResources(10);
+
+        File malformed = temporaryFolder.newFile("malformed.xml");
+        FileWriter writer = new FileWriter(malformed);
+        writer.write("<?xml version=\"1.0\"?><batch><content></batch>");
+        writer.close();
+
+        LinkedHashSet<URL> resources = newContentResources("malformed", 1);
+        resources.add(malformed.toURI().toURL());
+
+        try {
+            target.importContentByImportOrder(resources);
+            Assert.fail("Expected the malformed resource to fail");
+        } catch (ResourceConversionException e) {
+            assertEquals(malformed.toURI().toURL(), e.getResource());
+            assertEquals(ImportStage.PARSE, e.getMetrics().getFailureStage());
+            Assert.assertTrue(e.getCause() instanceof SAXException);
+        }
+
+        verifyZeroInteractions(documentImporter);
+    }
+
+    @Test
+    public void shouldIsolateFailingResourceInBatch() throws Exception {
+        target.setBatchMaxResources(8);
+        target.setIsolateFailures(true);
+
+        LinkedHashSet<URL> resources = newContentResources("isolated", 8);
+
+        doThrow(new Exception("Poison")).when(documentImporter).importXML(Matchers.contains("isolated-5<"));
+
+        try {
+            target.importContentByImportOrder(resources);
+            Assert.fail("Expected the poison resource to be reported");
+        } catch (PoisonResourcesException e) {
+            assertEquals(1, e.getReport().getFailures().size());
+            Assert.assertTrue(e.getReport().getFailures().get(0).getResource().getFile().endsWith("isolated-5.content"));
+            assertEquals(7, e.getReport().getImportedCount());
+        }
+
+        // the whole batch, both halves, both quarters of the failing half and both resources of the failing quarter.
+        verify(documentImporter, times(7)).importXML(anyString());
+    }
+
+    @Test
+    public void shouldRetryTransientFailures() throws Exception {
+        target.setIsolateFailures(true);
+        target.setRetryBackoffMillis(1);
+
+        doThrow(new Exception(new java.net.SocketTimeoutException("Timeout"))).doNothing()
+            .when(documentImporter).importXML(anyString());
+
+        target.importContentByImportOrder(newContentResources("transient", 1));
+
+        verify(documentImporter, times(2)).importXML(anyString());
+        assertEquals(1, target.getLastImportReport().getImportedCount());
+    }
+
+    @Test
+    public void shouldSkipResourcesUnchangedSinceLastImport() throws Exception {
+        File ledgerFile = new File(temporaryFolder.getRoot(), "import.ledger");
+        LinkedHashSet<URL> resources = newContentResources("ledger", 3);
+
+        target.setImportLedger(new ImportLedger(ledgerFile));
+        target.importContentByImportOrder(resources);
+
+        verify(documentImporter, times(3)).importXML(anyString());
+        Assert.assertTrue(ledgerFile.exists());
+
+        File changed = new File(temporaryFolder.getRoot(), "ledger-1.content");
+        FileWriter writer = new FileWriter(changed);
+        writer.write("id:ledger-1\nmajor:Article\ninputtemplate:p.Article\nname:Changed\n");
+        writer.close();
+
+        reset(documentImporter);
+        target.setImportLedger(new ImportLedger(ledgerFile));
+        target.importContentByImportOrder(resources);
+
+        verify(documentImporter, times(1)).importXML(Matchers.contains("ledger-1"));
+        verifyNoMoreInteractions(documentImporter);
+
+        reset(documentImporter);
+        target.setForceFullImport(true);
+        target.importContentByImportOrder(resources);
+
+        verify(documentImporter, times(3)).importXML(anyString());
+    }
+
+    @Test
+    public void shouldResumeInterruptedImportFromCheckpoint() throws Exception {
+        File checkpointFile = new File(temporaryFolder.getRoot(), "import.checkpoint");
+        LinkedHashSet<URL> resources = newContentResources("resume", 5);
+
+        target.setCheckpointFile(checkpointFile);
+        target.setBatchMaxResources(2);
+        doNothing().doThrow(new RuntimeException("Connection lost")).when(documentImporter).importXML(anyString());
+
+        try {
+            target.importContentByImportOrder(resources);
+            Assert.fail("The import should have been interrupted.");
+        } catch (ContentImportHandlerException e) {
+        }
+
+        Assert.assertTrue(checkpointFile.exists());
+
+        reset(documentImporter);
+        target.resumeImportByImportOrder(resources);
+
+        ArgumentCaptor<String> xml = ArgumentCaptor.forClass(String.class);
+        verify(documentImporter, times(2)).importXML(xml.capture());
+
+        Assert.assertFalse(xml.getAllValues().get(0).contains("resume-1"));
+        Assert.assertTrue(xml.getAllValues().get(0).contains("resume-2"));
+        Assert.assertTrue(xml.getAllValues().get(1).contains("resume-4"));
+        Assert.assertFalse(checkpointFile.exists());
+    }
+
+    @Test
+    public void shouldImportAllWhenCheckpointIsForOtherResources() throws Exception {
+        File checkpointFile = new File(temporaryFolder.getRoot(), "import.checkpoint");
+        LinkedHashSet<URL> resources = newContentResources("other", 3);
+
+        List<URL> ordered = new ArrayList<URL>(resources);
+        ImportCheckpoint checkpoint = ImportCheckpoint.start(checkpointFile, ordered.subList(0, 2));
+        checkpoint.imported(ordered.get(1));
+        checkpoint.close();
+
+        target.setCheckpointFile(checkpointFile);
+        target.resumeImportByImportOrder(resources);
+
+        verify(documentImporter, times(3)).importXML(anyString());
+    }
+
+    @Test
+    public void shouldImportAsynchronouslyReportingProgress() throws Exception {
+        LinkedHashSet<URL> resources = newContentResources("async", 3);
+        final List<ImportProgress> progress = new ArrayList<ImportProgress>();
+
+        ImportReport report = target.importContentByImportOrderAsync(resources, new ImportProgressListener() {
+            public void progress(ImportProgress event) {
+                progress.add(event);
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, report.getImportedCount());
+        assertEquals(3, progress.size());
+        assertEquals(3, progress.get(2).getResourcesCompleted());
+        assertEquals(3, progress.get(2).getTotalResources());
+        assertEquals(new ArrayList<URL>(resources).get(2), progress.get(2).getCurrentResource());
+        Assert.assertTrue(progress.get(2).getBytesProcessed() > progress.get(0).getBytesProcessed());
+    }
+
+    @Test
+    public void shouldStopCancelledAsynchronousImport() throws Exception {
+        LinkedHashSet<URL> resources = newContentResources("cancel", 4);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final AtomicReference<Future<ImportReport>> future = new AtomicReference<Future<ImportReport>>();
+
+        target.setAsyncExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+
+        future.set(target.importContentByImportOrderAsync(resources, new ImportProgressListener() {
+            public void progress(ImportProgress event) {
+                future.get().cancel(false);
+            }
+        }));
+
+        tasks.get(0).run();
+
+        Assert.assertTrue(future.get().isCancelled());
+        verify(documentImporter, times(1)).importXML(anyString());
+        assertEquals(1, target.getLastImportReport().getImportedCount());
+    }
+
+    @Test
+    public void shouldMeasureEveryResource() throws Exception {
+        LinkedHashSet<URL> resources = newContentResources("measured", 3);
+        ImportStatistics statistics = new ImportStatistics(2);
+
+        target.setInstrumentation(statistics);
+        target.setIsolateFailures(true);
+        doNothing().when(documentImporter).importXML(anyString());
+        doThrow(new RuntimeException("Invalid input template")).when(documentImporter)
+            .importXML(Matchers.contains("measured-1"));
+
+        try {
+            target.importContentByImportOrder(resources);
+            Assert.fail("The failing resource should have been reported.");
+        } catch (PoisonResourcesException e) {
+        }
+
+        assertEquals(3, statistics.getResourceCount());
+        assertEquals(3, statistics.getContentCount());
+        assertEquals(1, statistics.getFailureCount(ImportStage.IMPORT));
+        assertEquals(0, statistics.getFailureCount(ImportStage.PARSE));
+        Assert.assertTrue(statistics.getBytesRead() > 0);
+        Assert.assertTrue(statistics.getXmlSize() > statistics.getBytesRead());
+        assertEquals(2, statistics.getSlowest().size());
+        Assert.assertTrue(statistics.getSlowest().get(0).getTotalNanos() >=
+                          statistics.getSlowest().get(1).getTotalNanos());
+        Assert.assertTrue(statistics.getPercentileNanos(ImportStage.READ, 50) <=
+                          statistics.getPercentileNanos(ImportStage.READ, 100));
+    }
+
+    @Test
+    public void shouldChecksumSpilledContentWhileParsing() throws Exception {
+        File ledgerFile = new File(temporaryFolder.getRoot(), "import.ledger");
+        LinkedHashSet<URL> resources = newContentResources("streamed", 2);
+        ImportStatistics statistics = new ImportStatistics(2);
+
+        target.setImportLedger(new ImportLedger(ledgerFile));
+        target.setInstrumentation(statistics);
+        target.setContentSpillThreshold(0);
+        target.importContentByImportOrder(resources);
+
+        verify(documentImporter, times(2)).importXML(anyString());
+        assertEquals(new File(resources.iterator().next().toURI()).length() +
+                     new File(temporaryFolder.getRoot(), "streamed-1.content").length(),
+                     statistics.getBytesRead());
+
+        // touched but unchanged, so skipped once its checksum matches.
+        File touched = new File(temporaryFolder.getRoot(), "streamed-0.content");
+        Assert.assertTrue(touched.setLastModified(touched.lastModified() - 10000));
+
+        reset(documentImporter);
+        target.setImportLedger(new ImportLedger(ledgerFile));
+        target.importContentByImportOrder(resources);
+
+        verifyZeroInteractions(documentImporter);
+
+        FileWriter writer = new FileWriter(touched);
+        writer.write("id:streamed-0\nmajor:Article\ninputtemplate:p.Article\nname:Changed\n");
+        writer.close();
+        Assert.assertTrue(touched.setLastModified(touched.lastModified() - 20000));
+
+        reset(documentImporter);
+        target.setImportLedger(new ImportLedger(ledgerFile));
+        target.importContentByImportOrder(resources);
+
+        verify(documentImporter, times(1)).importXML(Matchers.contains("Changed"));
+        verifyNoMoreInteractions(documentImporter);
+    }
+
+    @Test
+    public void shouldCollectAllFailuresInDryRunWithoutImporting() throws Exception {
+        LinkedHashSet<URL> resources = newContentResources("dry", 2);
+
+        File unknownMajor = temporaryFolder.newFile("unknown-major.content");
+        FileWriter writer = new FileWriter(unknownMajor);
+        writer.write("id:dry-unknown\nmajor:NoSuchMajor\n");
+        writer.close();
+        resources.add(unknownMajor.toURI().toURL());
+
+        File malformed = temporaryFolder.newFile("malformed.xml");
+        writer = new FileWriter(malformed);
+        writer.write("<?xml version=\"1.0\"?><batch><content></batch>");
+        writer.close();
+        resources.add(malformed.toURI().toURL());
+
+        target.setDryRun(true);
+
+        try {
+            target.importContentByImportOrder(resources);
+            Assert.fail("The invalid resources should have been reported.");
+        } catch (PoisonResourcesException e) {
+            assertEquals(2, e.getReport().getFailures().size());
+            assertEquals(unknownMajor.toURI().toURL(), e.getReport().getFailures().get(0).getResource());
+            assertEquals(malformed.toURI().toURL(), e.getReport().getFailures().get(1).getResource());
+            assertEquals(2, e.getReport().getImportedCount());
+        }
+
+        verifyZeroInteractions(documentImporter);
+    }
+
+    private LinkedHashSet<URL> newContentResources(String prefix, int count) throws Exception {
+        LinkedHashSet<URL> resources = new LinkedHashSet<URL>();
+
+        for (int i = 0; i < count; i++) {
+            File file = temporaryFolder.newFile(prefix + "-" + i + ".content");
+
+            FileWriter writer = new FileWriter(file);
+            writer.write("id:" + prefix + "-" + i + "\nmajor:Article\ninputtemplate:p.Article\n");
+            writer.close();
+
+            resources.add(file.toURI().toURL());
+        }
+
+        return resources;
+    }
+
     @Test
     public void isValidResourceShouldHandleFilesInJARs() throws MalformedURLException {
         String resourceBasePath = getClass().getClassLoader().getResource("StandardContentImportHandlerTest.jar").toString();
@@ -267,4 +838,14 @@ public class StandardContentImportHandlerTest {
         importHandler.importContentResources(urls);
         verify(docImporter).importXML(Matchers.contains("<batch xmlns=\"http://www.polopoly.com/polopoly/cm/xmlio\">"));
     }
+
+    private static void writeFile(File file, String text) throws Exception {
+        FileWriter writer = new FileWriter(file);
+
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URL;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Base64CacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldForgetLeastRecentlyWrittenAttachments() throws Exception {
+        FileAttachment a = attachment("a.bin");
+        FileAttachment b = attachment("b.bin");
+        FileAttachment c = attachment("c.bin");
+        Base64Cache cache = new Base64Cache(1024, 2);
+
+        assertFalse(cache.isCacheable(a));
+        assertFalse(cache.isCacheable(b));
+        assertTrue(cache.isCacheable(a));
+        assertFalse(cache.isCacheable(c));
+
+        // b was forgotten when c was written, a was written more recently.
+        assertFalse(cache.isCacheable(b));
+        assertTrue(cache.isCacheable(c));
+    }
+
+    @Test
+    public void shouldShareEncodingsBetweenWriters() throws Exception {
+        FileAttachment attachment = attachment("shared.bin");
+        Base64Cache cache = new Base64Cache(TextContentXmlWriter.DEFAULT_BASE64_CACHE_SIZE);
+
+        String first = write(cache, "first");
+        assertNull(cache.get(attachment));
+
+        String second = write(cache, "second");
+        assertNotNull(cache.get(attachment));
+
+        assertEquals(first.replace("first", "second"), second);
+        assertEquals(second, write(cache, "second"));
+    }
+
+    private String write(Base64Cache cache, String id) throws Exception {
+        String content = "id:" + id + "\nmajor:Article\nfile:shared.bin:shared.bin\n";
+        URL contentURL = new File(temporaryFolder.getRoot(), id + ".content").toURI().toURL();
+
+        TextContentSet contentSet = new TextContentParser(new ByteArrayInputStream(content.getBytes("UTF-8")),
+            contentURL, id + ".content").parse();
+
+        StringWriter writer = new StringWriter();
+        TextContentXmlWriter xmlWriter = new TextContentXmlWriter(writer);
+
+        xmlWriter.setBase64Cache(cache);
+        xmlWriter.write(contentSet);
+        xmlWriter.close();
+
+        return writer.toString();
+    }
+
+    private FileAttachment attachment(String name) throws Exception {
+        File file = temporaryFolder.newFile(name);
+        OutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(new byte[300]);
+        } finally {
+            outputStream.close();
+        }
+
+        return FileAttachment.resolve(file.toURI().toURL());
+    }
+}
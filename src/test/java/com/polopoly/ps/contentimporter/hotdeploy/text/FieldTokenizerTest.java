@@ -0,0 +1,151 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Pins the fields of the tokenizer to those of the split it replaced in
+ * {@link TextContentParser}, quirks included.
+ */
+public class FieldTokenizerTest {
+
+    private final FieldTokenizer target = new FieldTokenizer(':');
+
+    @Test
+    public void shouldSplitAtSeparators() {
+        assertFields("id:article", "id", "article");
+        assertFields("component:body:value:x", "component", "body", "value", "x");
+    }
+
+    @Test
+    public void shouldKeepEmptyFields() {
+        assertFields("", "");
+        assertFields(":", "", "");
+        assertFields("a::b:", "a", "", "b", "");
+        assertFields("::a", "", "", "a");
+    }
+
+    @Test
+    public void shouldNotSplitAtEscapedSeparators() {
+        assertFields("a\\:b:c", "a:b", "c");
+        assertFields("\\::\\:", ":", ":");
+        assertFields("a\\\\:b", "a\\", "b");
+        assertFields("a\\xb", "axb");
+    }
+
+    @Test
+    public void shouldDropTrailingBackslash() {
+        assertFields("a:b\\", "a", "b");
+        assertFields("\\", "");
+        assertFields("a\\\\\\", "a\\");
+    }
+
+    @Test
+    public void shouldKeepEscapeOpenAfterNewline() {
+        assertFields("a\\nb", "a\nb");
+        assertFields("a\\n:b", "a\n:b");
+        assertFields("a\\nn:b", "a\n\n:b");
+        assertFields("a\\n\\:b", "a\n\\", "b");
+        assertFields("a\\nx:b", "a\nx", "b");
+        assertFields("n\\\\n", "n\\n");
+    }
+
+    @Test
+    public void shouldKeepQuotesAsText() {
+        assertFields("\"a:b\"", "\"a", "b\"");
+        assertFields("'a\\:b':c", "'a:b'", "c");
+        assertFields("component:body:value:\"quoted\"", "component", "body", "value", "\"quoted\"");
+    }
+
+    @Test
+    public void shouldSplitLikeBaseline() {
+        Random random = new Random(11);
+        char[] alphabet = { ':', '\\', 'n', 'a', '"', ' ' };
+
+        for (int i = 0; i < 20000; i++) {
+            char[] line = new char[random.nextInt(40)];
+
+            for (int j = 0; j < line.length; j++) {
+                line[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+
+            String string = new String(line);
+            assertFields(string, baselineSplit(string));
+        }
+    }
+
+    @Test
+    public void shouldReuseBuffersAcrossLines() {
+        StringBuilder longLine = new StringBuilder();
+
+        for (int i = 0; i < 100; i++) {
+            longLine.append("field").append(i).append("\\:").append(':');
+        }
+
+        assertFields(longLine.toString(), baselineSplit(longLine.toString()));
+        assertFields("a:b", "a", "b");
+    }
+
+    @Test
+    public void shouldLookUpFieldsInTable() {
+        FieldTokenizer.Table table = new FieldTokenizer.Table("id", "inputtemplate", "input", "component");
+
+        target.tokenize("inputtemplate:input:in:component\\::id:\u00e5");
+
+        assertEquals(1, target.lookup(0, table));
+        assertEquals(2, target.lookup(1, table));
+        assertEquals(-1, target.lookup(2, table));
+        assertEquals(-1, target.lookup(3, table));
+        assertEquals(0, target.lookup(4, table));
+        assertEquals(-1, target.lookup(5, table));
+    }
+
+    private void assertFields(String line, String... expected) {
+        target.tokenize(line);
+
+        String[] fields = new String[target.getFieldCount()];
+
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = target.getField(i);
+        }
+
+        assertArrayEquals("Fields of " + line, expected, fields);
+    }
+
+    /**
+     * The split of the parser before the tokenizer, verbatim.
+     */
+    private static String[] baselineSplit(String line) {
+        List<String> result = new ArrayList<String>();
+
+        boolean quote = false;
+
+        StringBuffer current = new StringBuffer(100);
+
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+
+            if (ch == ':' && !quote) {
+                result.add(current.toString());
+                current.setLength(0);
+            } else if (ch == '\\' && !quote) {
+                quote = true;
+            } else if (quote && ch == 'n') {
+                current.append('\n');
+            } else {
+                current.append(ch);
+                quote = false;
+            }
+        }
+
+        result.add(current.toString());
+
+        return result.toArray(new String[result.size()]);
+    }
+}
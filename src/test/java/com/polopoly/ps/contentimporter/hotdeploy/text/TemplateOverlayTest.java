@@ -0,0 +1,164 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Pins the iteration order of overlays to that of the HashMaps the writer
+ * used to merge templates and contents into.
+ */
+public class TemplateOverlayTest {
+
+    private final Random random = new Random(15);
+
+    @Test
+    public void shouldIterateAsMergedHashMap() {
+        TemplateOverlay.Orders orders = new TemplateOverlay.Orders();
+
+        for (int i = 0; i < 2000; i++) {
+            Map<String, String> template = randomMap("template");
+            Map<String, String> content = randomMap("content");
+
+            if (i % 3 == 0) {
+                // only overrides entries of the template.
+                content.keySet().retainAll(template.keySet());
+            }
+
+            // the writer only merged into a new map if the template had entries.
+            Map<String, String> merged = content;
+
+            if (!template.isEmpty()) {
+                merged = new HashMap<String, String>();
+                merged.putAll(template);
+                merged.putAll(content);
+            }
+
+            assertEntries(merged, TemplateOverlay.overlay(template, content, orders));
+        }
+    }
+
+    @Test
+    public void shouldIterateGroupsAsMergedHashMap() {
+        TemplateOverlay.Orders orders = new TemplateOverlay.Orders();
+
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Map<String, String>> template = randomGroups("template");
+            Map<String, Map<String, String>> content = randomGroups("content");
+
+            Map<String, Map<String, String>> overlay = TemplateOverlay.overlayGroups(template, content, orders);
+            Map<String, Map<String, String>> merged = mergeGroups(template, content);
+
+            assertEquals(new ArrayList<String>(merged.keySet()), new ArrayList<String>(overlay.keySet()));
+
+            for (String group : merged.keySet()) {
+                assertEntries(merged.get(group), overlay.get(group));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReturnEntryPerElement() {
+        Map<String, String> template = new HashMap<String, String>();
+        template.put("a", "1");
+        Map<String, String> content = new HashMap<String, String>();
+        content.put("b", "2");
+
+        Map<String, String> overlay = TemplateOverlay.overlay(template, content, new TemplateOverlay.Orders());
+
+        Iterator<Map.Entry<String, String>> iterator = overlay.entrySet().iterator();
+        Map.Entry<String, String> first = iterator.next();
+        Map.Entry<String, String> second = iterator.next();
+
+        assertNotSame(first, second);
+        assertEquals(first.getValue(), overlay.get(first.getKey()));
+
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("a", "1");
+        expected.put("b", "2");
+
+        assertEquals(expected, overlay);
+        assertEquals(expected.hashCode(), overlay.hashCode());
+        assertEquals(expected.entrySet(), overlay.entrySet());
+    }
+
+    private void assertEntries(Map<String, String> expected, Map<String, String> actual) {
+        List<Map.Entry<String, String>> expectedEntries = new ArrayList<Map.Entry<String, String>>(expected.entrySet());
+        List<Map.Entry<String, String>> actualEntries = new ArrayList<Map.Entry<String, String>>(actual.entrySet());
+
+        assertEquals(expectedEntries, actualEntries);
+    }
+
+    /**
+     * The merge of component and reference groups the writer used to do.
+     */
+    private Map<String, Map<String, String>> mergeGroups(Map<String, Map<String, String>> template,
+                                                         Map<String, Map<String, String>> content) {
+        if (template.isEmpty()) {
+            return content;
+        }
+
+        Map<String, Map<String, String>> merged = new HashMap<String, Map<String, String>>();
+
+        Set<String> keys = new HashSet<String>();
+        keys.addAll(content.keySet());
+        keys.addAll(template.keySet());
+
+        for (String key : keys) {
+            Map<String, String> r1 = content.get(key);
+            Map<String, String> r2 = template.get(key);
+
+            if (r1 == null) {
+                merged.put(key, r2);
+            } else if (r2 == null) {
+                merged.put(key, r1);
+            } else {
+                Map<String, String> child = new HashMap<String, String>();
+
+                child.putAll(r2);
+                child.putAll(r1);
+
+                merged.put(key, child);
+            }
+        }
+
+        return merged;
+    }
+
+    private Map<String, Map<String, String>> randomGroups(String value) {
+        Map<String, Map<String, String>> groups = new HashMap<String, Map<String, String>>();
+        int size = random.nextInt(8);
+
+        for (int i = 0; i < size; i++) {
+            groups.put(randomKey(), randomMap(value));
+        }
+
+        return groups;
+    }
+
+    private Map<String, String> randomMap(String value) {
+        Map<String, String> map = new HashMap<String, String>();
+        int size = random.nextInt(40);
+
+        for (int i = 0; i < size; i++) {
+            map.put(randomKey(), value + i);
+        }
+
+        return map;
+    }
+
+    private String randomKey() {
+        // few enough keys to collide in buckets and across maps.
+        return "k" + random.nextInt(60);
+    }
+}
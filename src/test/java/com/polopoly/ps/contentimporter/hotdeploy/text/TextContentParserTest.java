@@ -0,0 +1,36 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class TextContentParserTest {
+
+    @Test
+    public void shouldStreamObjectsInFileOrder() throws Exception {
+        String content = "id:b\nmajor:Article\nname:First\n\n# comment\nid:a\nmajor:Article\nname:Second\n";
+        URL resourceURL = new URL("file:/streamed.content");
+
+        TextContentParser parser = new TextContentParser(
+            new ByteArrayInputStream(content.getBytes("UTF-8")), resourceURL, "streamed.content");
+
+        TextContent first = parser.next();
+        TextContent second = parser.next();
+
+        assertEquals("b", first.getId());
+        assertEquals("First", first.getComponent("polopoly.Content", "name"));
+        assertEquals("a", second.getId());
+        assertEquals("Second", second.getComponent("polopoly.Content", "name"));
+        assertNull(parser.next());
+
+        TextContentSet parsed = new TextContentParser(
+            new ByteArrayInputStream(content.getBytes("UTF-8")), resourceURL, "streamed.content").parse();
+
+        assertEquals(2, parsed.size());
+        assertEquals("a", parsed.iterator().next().getId());
+    }
+}
@@ -0,0 +1,273 @@
+package com.polopoly.ps.contentimporter.hotdeploy.text;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.InputSource;
+
+import com.polopoly.ps.contentimporter.hotdeploy.util.ResourceLoader;
+
+/**
+ * Compares the XML written for the .content files in <code>golden/</code>
+ * with the XML in the corresponding .xml files, which must not change
+ * unless the format of the written XML is meant to change. The .xml files
+ * are the output of the writer as it was before its templates were
+ * precompiled, so they pin the current writer to that output byte for byte.
+ */
+public class TextContentXmlWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldWriteGoldenBasicContent() throws Exception {
+        assertWritesGolden("basic");
+    }
+
+    @Test
+    public void shouldWriteGoldenTemplateContent() throws Exception {
+        assertWritesGolden("templates");
+    }
+
+    @Test
+    public void shouldWriteGoldenPublishingContent() throws Exception {
+        assertWritesGolden("publishing");
+    }
+
+    @Test
+    public void shouldWriteGoldenEscapedContent() throws Exception {
+        assertWritesGolden("escapes");
+    }
+
+    @Test
+    public void shouldWritePublishingsIntoContentWhoseIdIsPrefixOfAnother() throws Exception {
+        String content = "id:c1\ninputtemplate:it\n\n" +
+                         "id:c10\ninputtemplate:it\n\n" +
+                         "id:article\ninputtemplate:it\npublish:g:c1\npublish:g:c10\n";
+
+        TextContentSet contentSet = new TextContentParser(new ByteArrayInputStream(content.getBytes("UTF-8")),
+            new URL("file:/test.content"), "test.content").parse();
+
+        String xml = write(contentSet);
+
+        assertTrue(xml.contains("        <externalid>c1</externalid>\n" +
+                                "      </contentid>\n" +
+                                "      <input-template>\n" +
+                                "        <externalid>it</externalid>\n" +
+                                "      </input-template>\n" +
+                                "    </metadata>\n" +
+                                "    <contentlist mode=\"modify\" group=\"g\">"));
+        assertFalse(xml.contains("      <contentid>\n        <externalid>c1</externalid>\n      </contentid>\n    </metadata>"));
+    }
+
+    @Test
+    public void shouldEncodeSurrogatePairsWhenWritingToStream() throws Exception {
+        String content = "id:c1\ninputtemplate:it\ncomponent:text:value:smile \ud83d\ude00 pi \u03c0\n";
+
+        TextContentSet contentSet = new TextContentParser(new ByteArrayInputStream(content.getBytes("UTF-8")),
+            new URL("file:/test.content"), "test.content").parse();
+
+        String xml = write(contentSet);
+
+        assertTrue(xml.contains("smile \ud83d\ude00 pi \u03c0"));
+        assertArrayEquals(xml.getBytes("UTF-8"), writeBytes(contentSet));
+    }
+
+    @Test
+    public void shouldWriteSameAttachmentsWhateverTheBase64CacheSize() throws Exception {
+        TextContentSet contentSet = parseGolden("templates");
+        String expected = write(contentSet);
+        long attachmentSize = Base64Cache.encodedLength(300);
+
+        for (long cacheSize : new long[] {0, attachmentSize - 1, attachmentSize, 10 * attachmentSize}) {
+            StringWriter writer = new StringWriter();
+            TextContentXmlWriter xmlWriter = new TextContentXmlWriter(writer);
+
+            xmlWriter.setBase64CacheSize(cacheSize);
+            xmlWriter.write(contentSet);
+            xmlWriter.close();
+
+            assertEquals(expected, writer.toString());
+        }
+    }
+
+    @Test
+    public void shouldStreamFileAttachmentsAsChunkedBase64() throws Exception {
+        byte[] image = new byte[200 * 1000 + 17];
+        new Random(13).nextBytes(image);
+
+        File imageFile = temporaryFolder.newFile("image.jpg");
+        OutputStream outputStream = new FileOutputStream(imageFile);
+
+        try {
+            outputStream.write(image);
+        } finally {
+            outputStream.close();
+        }
+
+        String content = "id:attachment\nmajor:Article\nfile:image.jpg:image.jpg\n";
+        URL contentURL = new File(temporaryFolder.getRoot(), "attachment.content").toURI().toURL();
+
+        TextContentSet contentSet = new TextContentParser(new ByteArrayInputStream(content.getBytes("UTF-8")),
+            contentURL, "attachment.content").parse();
+
+        String xml = write(contentSet);
+        String expected = "<file encoding=\"base64\" name=\"image.jpg\">" +
+            new String(Base64.encodeBase64(image, true), "US-ASCII") + "    </file>";
+
+        assertTrue(xml.contains(expected));
+        assertArrayEquals(xml.getBytes("UTF-8"), writeBytes(contentSet));
+    }
+
+    @Test
+    public void shouldSplitOutputIntoDocumentsAfterBootstrapDefinitions() throws Exception {
+        TextContentSet contentSet = parseGolden("templates");
+        String expected = write(contentSet);
+        String header = expected.substring(0, expected.indexOf("  <content>"));
+        String footer = "</batch>\n";
+
+        for (int maxObjects = 0; maxObjects <= 3; maxObjects++) {
+            for (long maxSize : new long[] {0, 1, 600}) {
+                if (maxObjects == 0 && maxSize == 0) {
+                    continue;
+                }
+
+                final List<StringWriter> documents = new ArrayList<StringWriter>();
+
+                TextContentXmlWriter xmlWriter = new TextContentXmlWriter(new DocumentOutput() {
+                    public Writer nextDocument() {
+                        StringWriter document = new StringWriter();
+                        documents.add(document);
+
+                        return document;
+                    }
+                }, maxObjects, maxSize);
+
+                xmlWriter.write(contentSet);
+                xmlWriter.close();
+
+                assertTrue(documents.size() > 1);
+
+                StringBuilder body = new StringBuilder(header);
+                List<Integer> objectsBefore = new ArrayList<Integer>();
+                int objects = 0;
+
+                for (StringWriter document : documents) {
+                    String xml = document.toString();
+
+                    assertTrue(xml.startsWith(header));
+                    assertTrue(xml.endsWith(footer));
+                    DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+
+                    int count = xml.split("  <content>").length - 1;
+
+                    assertTrue(count > 0);
+                    assertTrue(maxObjects == 0 || count <= maxObjects);
+
+                    objects += count;
+                    objectsBefore.add(objects);
+                    body.append(xml, header.length(), xml.length() - footer.length());
+                }
+
+                body.append(footer);
+
+                assertEquals(expected, body.toString());
+                // no document holds both bootstrap and full definitions.
+                assertTrue(objectsBefore.contains(contentSet.size()));
+            }
+        }
+    }
+
+    private TextContentSet parseGolden(String name) throws Exception {
+        URL content = getClass().getClassLoader().getResource("golden/" + name + ".content");
+        InputStream inputStream = content.openStream();
+
+        try {
+            return new TextContentParser(inputStream, content, name + ".content").parse();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void assertWritesGolden(String name) throws Exception {
+        URL content = getClass().getClassLoader().getResource("golden/" + name + ".content");
+        URL xml = getClass().getClassLoader().getResource("golden/" + name + ".xml");
+
+        assertNotNull(content);
+        assertNotNull(xml);
+
+        InputStream inputStream = content.openStream();
+        TextContentSet contentSet;
+
+        try {
+            contentSet = new TextContentParser(inputStream, content, name + ".content").parse();
+        } finally {
+            inputStream.close();
+        }
+
+        String expected = new String(ResourceLoader.readBytes(xml), "UTF-8");
+
+        assertEquals(expected, write(contentSet));
+        assertArrayEquals(ResourceLoader.readBytes(xml), writeBytes(contentSet));
+
+        inputStream = content.openStream();
+        SpilledTextContentSet spilledSet;
+
+        try {
+            spilledSet = new SpilledTextContentSet(inputStream, content, name + ".content", temporaryFolder.getRoot());
+        } finally {
+            inputStream.close();
+        }
+
+        try {
+            assertEquals(expected, write(spilledSet));
+        } finally {
+            spilledSet.close();
+        }
+
+        assertEquals(0, temporaryFolder.getRoot().list().length);
+    }
+
+    private String write(TextContentSet contentSet) throws Exception {
+        StringWriter writer = new StringWriter();
+        TextContentXmlWriter xmlWriter = new TextContentXmlWriter(writer);
+
+        xmlWriter.write(contentSet);
+        xmlWriter.close();
+
+        return writer.toString();
+    }
+
+    private byte[] writeBytes(TextContentSet contentSet) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TextContentXmlWriter xmlWriter = new TextContentXmlWriter(outputStream);
+
+        xmlWriter.write(contentSet);
+        xmlWriter.close();
+
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package com.polopoly.ps.contentimporter.hotdeploy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResourceLoaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadStreamWhateverTheExpectedLength() throws Exception {
+        byte[] bytes = randomBytes(20000);
+
+        for (long expectedLength : new long[] {-1, 0, 1, 19999, 20000, 20001, 100000}) {
+            assertArrayEquals("Expected length " + expectedLength,
+                bytes, ResourceLoader.readBytes(new ByteArrayInputStream(bytes), expectedLength));
+        }
+
+        assertEquals(0, ResourceLoader.readBytes(new ByteArrayInputStream(new byte[0]), 0).length);
+    }
+
+    @Test
+    public void shouldReadStreamOfExpectedLengthIntoSingleBuffer() throws Exception {
+        final byte[] bytes = randomBytes(20000);
+        final int[] reads = new int[1];
+
+        // returns the bytes one read at a time, counting single byte reads.
+        InputStream inputStream = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read() {
+                reads[0]++;
+                return super.read();
+            }
+        };
+
+        byte[] read = ResourceLoader.readBytes(inputStream, bytes.length);
+
+        assertArrayEquals(bytes, read);
+        assertEquals(1, reads[0]);
+    }
+
+    @Test
+    public void shouldReadFiles() throws Exception {
+        byte[] bytes = randomBytes(70000);
+
+        assertArrayEquals(bytes, ResourceLoader.readBytes(write("bytes.bin", bytes)));
+        assertArrayEquals(bytes, ResourceLoader.readBytes(write("url.bin", bytes).toURI().toURL()));
+        assertEquals(0, ResourceLoader.readBytes(write("empty.bin", new byte[0])).length);
+    }
+
+    @Test
+    public void readXmlShouldDetectEncoding() throws Exception {
+        String latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><batch>\u00e5\u00e4\u00f6</batch>";
+        String utf8 = "<?xml version=\"1.0\"?><batch>\u00e5\u00e4\u00f6</batch>";
+        String utf16 = "<?xml version=\"1.0\" encoding=\"UTF-16\"?><batch>\u00e5\u00e4\u00f6</batch>";
+
+        byte[] utf8Bytes = utf8.getBytes("UTF-8");
+        byte[] bom = new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] withBom = Arrays.copyOf(bom, bom.length + utf8Bytes.length);
+        System.arraycopy(utf8Bytes, 0, withBom, bom.length, utf8Bytes.length);
+
+        assertEquals(latin1, ResourceLoader.readXml(write("latin1.xml", latin1.getBytes("ISO-8859-1")).toURI().toURL()));
+        assertEquals(utf8, ResourceLoader.readXml(write("bom.xml", withBom).toURI().toURL()));
+        assertEquals(utf8, ResourceLoader.readXml(write("utf8.xml", utf8Bytes).toURI().toURL()));
+        assertEquals(utf16, ResourceLoader.readXml(write("utf16.xml", utf16.getBytes("UTF-16")).toURI().toURL()));
+    }
+
+    @Test
+    public void readXmlShouldDecodeMappedFiles() throws Exception {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><batch>");
+
+        while (xml.length() < ResourceLoader.MAPPING_THRESHOLD) {
+            xml.append("<content>\u00e5\u00e4\u00f6 \u20ac</content>\n");
+        }
+
+        xml.append("</batch>");
+
+        File file = write("mapped.xml", xml.toString().getBytes("UTF-8"));
+
+        assertEquals(xml.toString(), ResourceLoader.readXml(file.toURI().toURL()));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+
+        return bytes;
+    }
+
+    private File write(String name, byte[] bytes) throws Exception {
+        File file = temporaryFolder.newFile(name);
+        OutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,157 @@
+package com.polopoly.ps.contentimporter.hotdeploy.xml.bootstrap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
+import com.polopoly.ps.contentimporter.hotdeploy.file.FileDeploymentFile;
+import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.ContentXmlParser;
+import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.DeploymentFileParser;
+import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.StreamingContentXmlParser;
+import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.UnknownMajorException;
+import com.polopoly.ps.contentimporter.hotdeploy.xml.parser.cache.CachingDeploymentFileParser;
+
+public class BootstrapGeneratorTest {
+
+    private static final int FILES = 120;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldGenerateSameBootstrapWhenParsingInParallel() throws Exception {
+        List<DeploymentFile> files = writeFiles();
+
+        String sequential = describe(bootstrap(new ContentXmlParser(), files, 1));
+
+        assertEquals(sequential, describe(bootstrap(new ContentXmlParser(), files, 4)));
+        assertEquals(sequential, describe(bootstrap(new StreamingContentXmlParser(), files, 3)));
+        assertEquals(sequential,
+            describe(bootstrap(new CachingDeploymentFileParser(new StreamingContentXmlParser()), files, 4)));
+    }
+
+    @Test
+    public void shouldThrowParseFailureWhenParsingInParallel() throws Exception {
+        List<DeploymentFile> files = writeFiles();
+        files.add(FILES / 2, file("unknown-major.xml",
+            "<batch><content><metadata><contentid><major>nosuchmajor</major>" +
+            "<externalid>a</externalid></contentid></metadata></content></batch>"));
+
+        BootstrapGenerator generator = new BootstrapGenerator(new StreamingContentXmlParser());
+        generator.setParallelism(4);
+
+        try {
+            generator.generateTemplateBootstrap(files);
+            fail("The unknown major did not fail the bootstrap.");
+        } catch (UnknownMajorException e) {
+            // expected.
+        }
+    }
+
+    private TwoPhaseBootstrapResult bootstrap(DeploymentFileParser parser, List<DeploymentFile> files,
+                                              int parallelism) {
+        TwoPhaseBootstrapper bootstrapper = new TwoPhaseBootstrapper();
+        bootstrapper.setParallelism(parallelism);
+
+        return bootstrapper.bootstrap(parser, files, Collections.<List<DeploymentFile>>emptyList());
+    }
+
+    private String describe(TwoPhaseBootstrapResult result) {
+        PhaseOneBootstrap templateBootstrap = (PhaseOneBootstrap) result.getTemplateBootstrap();
+        List<String> templates = new ArrayList<String>(templateBootstrap.getDefinedTemplateExternalIds());
+        Collections.sort(templates);
+
+        String description = "templates " + templates + "\n" +
+                             describe(templateBootstrap) + describe(result.getContentBootstrap());
+
+        assertFalse(templates.isEmpty());
+        assertFalse(result.getContentBootstrap().isEmpty());
+
+        return description;
+    }
+
+    private String describe(Bootstrap bootstrap) {
+        StringBuilder description = new StringBuilder();
+
+        for (BootstrapContent content : bootstrap) {
+            describe(description, "bootstrap", content);
+        }
+
+        for (BootstrapContent content : bootstrap.getNeverCreatedButReferenced()) {
+            describe(description, "never created", content);
+        }
+
+        return description.toString();
+    }
+
+    private void describe(StringBuilder description, String kind, BootstrapContent content) {
+        description.append(kind).append(' ').append(content).append(' ').append(content.getInputTemplate())
+            .append(' ').append(content.getContentListWrapperClass()).append(' ').append(content.getLayoutClass())
+            .append('\n');
+    }
+
+    /**
+     * Template definitions and batches that reference templates and objects
+     * defined in earlier and later files, and some that are never defined.
+     */
+    private List<DeploymentFile> writeFiles() throws Exception {
+        List<DeploymentFile> files = new ArrayList<DeploymentFile>();
+
+        for (int i = 0; i < FILES; i++) {
+            if (i % 3 == 0) {
+                files.add(file("templates-" + i + ".xml",
+                    "<template-definition>\n" +
+                    "  <input-template name=\"it." + i + "\">\n" +
+                    "    <content-list-wrapper>com.example.Wrapper" + i % 4 + "</content-list-wrapper>\n" +
+                    "    <layoutClass>com.example.Layout" + i % 5 + "</layoutClass>\n" +
+                    "    <field name=\"f\" input-template=\"it." + (i + 6) % FILES + "\"/>\n" +
+                    "    <content-list name=\"l\" input-template=\"it.missing." + i % 7 + "\"/>\n" +
+                    "  </input-template>\n" +
+                    "  <output-template name=\"ot." + i + "\" input-template=\"it." + (i + 3) % FILES + "\"/>\n" +
+                    "</template-definition>\n"));
+            } else {
+                files.add(file("batch-" + i + ".xml",
+                    "<batch>\n" +
+                    "  <content>\n" +
+                    "    <metadata>\n" +
+                    "      <contentid><major>" + (i % 2 == 0 ? "Article" : "Department") + "</major>" +
+                    "<externalid>c." + i + "</externalid></contentid>\n" +
+                    "      <security-parent><externalid>c." + (i + 7) % FILES + "</externalid></security-parent>\n" +
+                    "      <input-template><externalid>it." + (i + 9) % FILES + "</externalid></input-template>\n" +
+                    "    </metadata>\n" +
+                    "    <contentref><metadata><referredContent><contentid><major>Department</major>" +
+                    "<externalid>c." + (i * 5) % FILES + "</externalid></contentid></referredContent></metadata>" +
+                    "</contentref>\n" +
+                    "  </content>\n" +
+                    "</batch>\n"));
+            }
+        }
+
+        return files;
+    }
+
+    private DeploymentFile file(String name, String xml) throws Exception {
+        File file = temporaryFolder.newFile(name);
+        OutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(xml.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+
+        return new FileDeploymentFile(file);
+    }
+}
@@ -0,0 +1,169 @@
+package com.polopoly.ps.contentimporter.hotdeploy.xml.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.polopoly.ps.contentimporter.hotdeploy.client.Major;
+import com.polopoly.ps.contentimporter.hotdeploy.file.DeploymentFile;
+import com.polopoly.ps.contentimporter.hotdeploy.file.FileDeploymentFile;
+
+/**
+ * Checks that the streaming parser makes the same callbacks as the DOM
+ * parser for the XML files used by the tests.
+ */
+public class StreamingContentXmlParserTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldMatchDomParserForGoldenBatches() throws Exception {
+        for (String name : new String[] {"basic", "templates", "publishing", "escapes"}) {
+            assertSameCallbacks(resource("golden/" + name + ".xml"));
+        }
+    }
+
+    @Test
+    public void shouldMatchDomParserForBatch() throws Exception {
+        List<String> callbacks = assertSameCallbacks(resource("StreamingContentXmlParserTest-batch.xml"));
+
+        assertTrue(callbacks.contains("content 1 example.Article.1 article example.Article"));
+        assertTrue(callbacks.contains("reference 1 department example.Department"));
+        assertTrue(callbacks.contains("reference 2 unknown example.Reference.Only"));
+    }
+
+    @Test
+    public void shouldMatchDomParserForTemplateDefinition() throws Exception {
+        List<String> callbacks = assertSameCallbacks(resource("StreamingContentXmlParserTest-templates.xml"));
+
+        assertTrue(callbacks.contains("content 1 example.Article inputtemplate null"));
+        assertTrue(callbacks.contains("wrapper 1 example.Article com.example.ArticleListWrapper"));
+        assertTrue(callbacks.contains("layout 1 example.Article com.example.ArticleLayout"));
+        assertTrue(callbacks.contains("class com.example.Renderer"));
+        assertTrue(callbacks.contains("reference 1 inputtemplate example.Untyped"));
+        assertTrue(callbacks.contains("reference 2 unknown example.Renderer"));
+    }
+
+    @Test
+    public void shouldMarkTemplateDefinitionFiles() throws Exception {
+        FileDeploymentFile templates = new FileDeploymentFile(resource("StreamingContentXmlParserTest-templates.xml"));
+        FileDeploymentFile batch = new FileDeploymentFile(resource("StreamingContentXmlParserTest-batch.xml"));
+
+        new StreamingContentXmlParser().parse(templates, new RecordingCallback());
+        new StreamingContentXmlParser().parse(batch, new RecordingCallback());
+
+        assertTrue(templates.isTemplateDefinitionFile());
+        assertFalse(batch.isTemplateDefinitionFile());
+    }
+
+    @Test
+    public void shouldMatchDomParserForFileOfUnknownType() throws Exception {
+        File file = write("unknown.xml", "<content><metadata><contentid><major>Article</major>" +
+                                         "<externalid>a</externalid></contentid></metadata></content>");
+
+        assertEquals(0, assertSameCallbacks(file).size());
+    }
+
+    @Test
+    public void shouldThrowForUnknownMajorLikeDomParser() throws Exception {
+        File file = write("unknown-major.xml", "<batch><content><metadata><contentid><major>nosuchmajor</major>" +
+                                               "<externalid>a</externalid></contentid></metadata></content></batch>");
+
+        assertThrowsUnknownMajor(new ContentXmlParser(), file);
+        assertThrowsUnknownMajor(new StreamingContentXmlParser(), file);
+    }
+
+    private void assertThrowsUnknownMajor(DeploymentFileParser parser, File file) {
+        try {
+            parser.parse(new FileDeploymentFile(file), new RecordingCallback());
+            fail(parser + " did not throw for an unknown major.");
+        } catch (UnknownMajorException e) {
+            // expected.
+        }
+    }
+
+    private List<String> assertSameCallbacks(File file) {
+        RecordingCallback expected = new RecordingCallback();
+        RecordingCallback actual = new RecordingCallback();
+
+        new ContentXmlParser().parse(new FileDeploymentFile(file), expected);
+        new StreamingContentXmlParser().parse(new FileDeploymentFile(file), actual);
+
+        assertEquals("Callbacks for " + file.getName(), expected.callbacks, actual.callbacks);
+
+        return actual.callbacks;
+    }
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getClassLoader().getResource(name).toURI());
+    }
+
+    private File write(String name, String xml) throws Exception {
+        File file = temporaryFolder.newFile(name);
+        OutputStream outputStream = new FileOutputStream(file);
+
+        try {
+            outputStream.write(xml.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * Records the callbacks, numbering the contexts in the order they are
+     * first seen so that callbacks sharing a context can be compared.
+     */
+    private static class RecordingCallback
+            implements ParseCallback, ContentListWrapperAwareParseCallback, LayoutAwareParseCallback {
+        private final List<String> callbacks = new ArrayList<String>();
+
+        private final Map<ParseContext, Integer> contexts = new IdentityHashMap<ParseContext, Integer>();
+
+        private int context(ParseContext context) {
+            Integer number = contexts.get(context);
+
+            if (number == null) {
+                number = contexts.size() + 1;
+                contexts.put(context, number);
+            }
+
+            return number;
+        }
+
+        public void contentFound(ParseContext context, String externalId, Major major, String inputTemplate) {
+            callbacks.add("content " + context(context) + " " + externalId + " " + major + " " + inputTemplate);
+        }
+
+        public void contentReferenceFound(ParseContext context, Major major, String externalId) {
+            callbacks.add("reference " + context(context) + " " + major + " " + externalId);
+        }
+
+        public void classReferenceFound(DeploymentFile file, String string) {
+            callbacks.add("class " + string);
+        }
+
+        public void contentListWrapperFound(ParseContext context, String inputTemplate, String contentListWrapper) {
+            callbacks.add("wrapper " + context(context) + " " + inputTemplate + " " + contentListWrapper);
+        }
+
+        public void layoutFound(ParseContext context, String inputTemplate, String layoutClass) {
+            callbacks.add("layout " + context(context) + " " + inputTemplate + " " + layoutClass);
+        }
+    }
+}